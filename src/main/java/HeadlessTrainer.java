@@ -0,0 +1,430 @@
+import datasets.Dataset;
+import datasets.CsvImporter;
+import datasets.DatasetRegistry;
+import datasets.DatasetSampler;
+import datasets.MappedDataset;
+import utils.BatchTrainer;
+import utils.BmuSearch;
+import utils.CommandLineOptions;
+import utils.ParallelTrainer;
+import utils.RandomStreams;
+import utils.SamplePipeline;
+import utils.SelfOrganizingMap;
+import utils.SnapshotScheduler;
+import utils.SomCheckpoint;
+import utils.TrainingMetrics;
+import utils.WeightStore;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Command line entry point for training a som without the JavaFX user interface.
+ *
+ * Usage: HeadlessTrainer [--name=value ...]
+ *
+ *   --dimensions=2         Number of som dimensions
+ *   --neurons=400          Wanted number of neurons
+ *   --input-size=3         Number of values of each training sample (default: the vector size of --data files)
+ *   --phi=0.25             Neighbourhood function variable
+ *   --eta=0.01             Learning rate
+ *   --dataset=0            Index or name of the training dataset
+ *   --data=file.somd       Train on a binary dataset file instead (see MappedDataset for the format).
+ *                          CSV and TSV files get converted into a .somd file next to them first.
+ *   --access=SHUFFLED      Order of the file vectors (SEQUENTIAL, SHUFFLED, RANDOM)
+ *   --iterations=1000000   Number of training iterations
+ *   --threads=1            Number of training threads
+ *   --batch=false          Train with batch epochs instead of online workers
+ *   --bmu=LINEAR           Best matching unit search (LINEAR, KD_TREE, WARM_START)
+ *   --store=HEAP_DOUBLE    Weight storage (HEAP_DOUBLE, HEAP_FLOAT, OFF_HEAP_DOUBLE)
+ *   --report=1             Seconds between progress reports
+ *   --metrics=metrics.csv  File for the progress reports (time, iterations, it/s, errors and step latencies)
+ *   --timing=64            Time every n-th training step of each thread for the latencies (0 disables it).
+ *                          The metrics are registered as MBean "som:type=TrainingMetrics" as well.
+ *   --producers=0          Sample producer threads ahead of the training (0 samples on the training threads)
+ *   --ring=16              Number of sample blocks between the producers and the training
+ *   --seed=42              Seed of all random numbers (default: random). Runs with one thread are reproducible.
+ *   --output=weights.csv   File for the final weights (one neuron per line)
+ *   --checkpoint=map.somc  File for the final som state, which can be resumed
+ *   --resume=map.somc      Continue training a saved som (replaces the som size options)
+ *   --snapshot-dir=dir     Write checkpoints into this directory during the training
+ *   --snapshot-every=0     Iterations between two snapshots
+ *   --snapshot-seconds=60  Seconds between two snapshots (used if no iteration interval is set)
+ *   --snapshot-keep=3      Number of snapshots kept in the directory
+ */
+public class HeadlessTrainer {
+    private static final int BATCH_SIZE = 4096;             // Number of samples per batch epoch
+    private static final int EVALUATION_SAMPLES = 2000;     // Number of samples for the quantization error
+    private static final int PIPELINE_BLOCK_SIZE = 256;     // Number of samples per block of the sample pipeline
+
+    private final SelfOrganizingMap som;
+    private final Dataset dataset;
+    private final RandomStreams randomStreams;
+    private final double[] evaluationSamples;
+    public int producers = 0;                               // Number of sample producer threads
+    public int ringSize = 16;                               // Number of blocks of the sample pipeline
+    public SnapshotScheduler snapshots = null;              // Writes snapshots during the training (or null)
+    public long startIteration = 0;                         // Iterations trained before this run
+    public BufferedWriter metrics = null;                   // Receives the progress reports as csv (or null)
+    public final TrainingMetrics trainingMetrics = new TrainingMetrics(); // Throughput and step latencies
+    private double quantizationError = 0;                   // Running quantization error at the end of the training
+    private double topographicError = 0;                    // Running topographic error at the end of the training
+
+    public HeadlessTrainer(SelfOrganizingMap som, Dataset dataset, RandomStreams randomStreams) {
+        this.som = som;
+        this.dataset = dataset;
+        this.randomStreams = randomStreams;
+
+        // fixed samples, so the reported errors are comparable
+        evaluationSamples = new double[EVALUATION_SAMPLES * som.inputSize];
+        dataset.createSampler(som.inputSize, randomStreams.next()).fill(evaluationSamples, EVALUATION_SAMPLES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLineOptions.parse(args);
+
+        int dimensions = Integer.parseInt(options.getOrDefault("dimensions", "2"));
+        int neurons = Integer.parseInt(options.getOrDefault("neurons", "400"));
+        double phi = Double.parseDouble(options.getOrDefault("phi", "0.25"));
+        double eta = Double.parseDouble(options.getOrDefault("eta", "0.01"));
+        Dataset dataset = options.containsKey("data")
+                ? MappedDataset.open(openDataFile(options.get("data")))
+                        .toDataset(MappedDataset.AccessMode.valueOf(options.getOrDefault("access", "SHUFFLED")))
+                : DatasetRegistry.find(options.getOrDefault("dataset", "0"));
+        if (dataset == null) {
+            throw new IllegalArgumentException("Unknown dataset: " + options.get("dataset"));
+        }
+        // stored vectors are trained with their own size, anything else would cut or pad them
+        int inputSize = Integer.parseInt(options.getOrDefault("input-size",
+                Integer.toString(dataset.dimension > 0 ? dataset.dimension : 3)));
+        if (dataset.dimension > 0 && inputSize != dataset.dimension) {
+            throw new IllegalArgumentException("--input-size=" + inputSize + " does not match the "
+                    + dataset.dimension + " values per vector of " + dataset.name);
+        }
+        long iterations = Long.parseLong(options.getOrDefault("iterations", "1000000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        boolean batch = Boolean.parseBoolean(options.getOrDefault("batch", "false"));
+        BmuSearch.Type bmuSearchType = BmuSearch.Type.valueOf(options.getOrDefault("bmu", "LINEAR"));
+        WeightStore.Type weightStoreType = WeightStore.Type.valueOf(options.getOrDefault("store", "HEAP_DOUBLE"));
+        double reportSeconds = Double.parseDouble(options.getOrDefault("report", "1"));
+        String output = options.get("output");
+        RandomStreams randomStreams = options.containsKey("seed")
+                ? new RandomStreams(Long.parseLong(options.get("seed")))
+                : new RandomStreams();
+
+        SelfOrganizingMap som;
+        long startIteration = 0;
+        if (options.containsKey("resume")) {
+            SomCheckpoint checkpoint = SomCheckpoint.load(Paths.get(options.get("resume")));
+            som = checkpoint.som;
+            startIteration = checkpoint.iteration;
+            if (dataset.dimension > 0 && som.inputSize != dataset.dimension) {
+                throw new IllegalArgumentException("The input size " + som.inputSize + " of " + options.get("resume")
+                        + " does not match the " + dataset.dimension + " values per vector of " + dataset.name);
+            }
+            if (options.containsKey("phi")) {
+                som.phi = phi;
+            }
+            System.out.println("Resumed " + options.get("resume") + " at iteration " + startIteration);
+        }
+        else {
+            som = new SelfOrganizingMap(inputSize, dimensions,
+                    SelfOrganizingMap.getNeuronPerDimension(neurons, dimensions), weightStoreType, randomStreams.next());
+            som.phi = phi;
+        }
+        som.setBmuSearchType(bmuSearchType);
+
+        System.out.println("Training " + som.numNeurons + " neurons (" + som.dimensions + "d, input size " + som.inputSize
+                + ") on \"" + dataset.name + "\" with "
+                + (batch ? "batch epochs" : threads + " thread(s)"));
+
+        HeadlessTrainer trainer = new HeadlessTrainer(som, dataset, randomStreams);
+        trainer.producers = Integer.parseInt(options.getOrDefault("producers", "0"));
+        trainer.ringSize = Integer.parseInt(options.getOrDefault("ring", "16"));
+        trainer.startIteration = startIteration;
+        if (options.containsKey("snapshot-dir")) {
+            trainer.snapshots = new SnapshotScheduler(Paths.get(options.get("snapshot-dir")), "som",
+                    Integer.parseInt(options.getOrDefault("snapshot-keep", "3")));
+            trainer.snapshots.iterationInterval = Long.parseLong(options.getOrDefault("snapshot-every", "0"));
+            if (trainer.snapshots.iterationInterval <= 0) {
+                trainer.snapshots.timeIntervalMillis = (long) (Double.parseDouble(options.getOrDefault("snapshot-seconds", "60")) * 1000);
+            }
+        }
+        if (options.containsKey("metrics")) {
+            trainer.metrics = Files.newBufferedWriter(Paths.get(options.get("metrics")), StandardCharsets.UTF_8);
+            trainer.metrics.write("seconds,iterations,iterations_per_second,quantization_error,topographic_error,evaluation_error,"
+                    + "sample_nanos,bmu_search_nanos,update_nanos,neurons_per_update");
+            trainer.metrics.newLine();
+        }
+        trainer.trainingMetrics.timingInterval = Integer.parseInt(options.getOrDefault("timing", "64"));
+        trainer.trainingMetrics.register("HeadlessTrainer");
+        long start = System.nanoTime();
+        long trained = batch
+                ? trainer.trainBatch(iterations, eta, threads, reportSeconds)
+                : trainer.trainOnline(iterations, eta, threads, reportSeconds);
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        if (trainer.snapshots != null) {
+            trainer.snapshots.shutdown();
+            System.out.println(String.format("Snapshots: %d written, %d skipped, last copy %.2fms, last file %s",
+                    trainer.snapshots.getWrittenCount(), trainer.snapshots.getSkippedCount(),
+                    trainer.snapshots.getLastCopyMillis(), trainer.snapshots.getLastPath()));
+            if (trainer.snapshots.getLastError() != null) {
+                System.out.println("Snapshot error: " + trainer.snapshots.getLastError());
+            }
+        }
+
+        if (trainer.metrics != null) {
+            trainer.metrics.close();
+        }
+        if (trainer.trainingMetrics.timingInterval > 0) {
+            System.out.println("Step latencies (last seconds):");
+            System.out.println(trainer.trainingMetrics.getSummary());
+        }
+        trainer.trainingMetrics.unregister();
+
+        System.out.println(String.format("Finished %d iterations in %.2fs (%.0f it/s), quantization error %.5f, running quantization error %.5f, topographic error %.4f",
+                trained, seconds, trained / seconds, trainer.getQuantizationError(), trainer.quantizationError, trainer.topographicError));
+
+        if (output != null) {
+            writeWeights(som, output);
+            System.out.println("Weights written to " + output);
+        }
+        if (options.containsKey("checkpoint")) {
+            new SomCheckpoint(som, startIteration + trained).save(Paths.get(options.get("checkpoint")));
+            System.out.println("Checkpoint written to " + options.get("checkpoint"));
+        }
+    }
+
+    /**
+     * Train with online workers
+     *
+     * @param iterations Number of iterations to train
+     * @param eta Learning rate
+     * @param threads Number of worker threads
+     * @param reportSeconds Seconds between progress reports
+     * @return number of trained iterations
+     */
+    public long trainOnline(long iterations, double eta, int threads, double reportSeconds) throws InterruptedException, IOException {
+        SamplePipeline pipeline = startPipeline();
+        ParallelTrainer trainer = new ParallelTrainer(som, pipeline != null
+                ? pipeline::createReader
+                : () -> dataset.createSampler(som.inputSize, randomStreams.next())::fill);
+        trainer.eta = eta;
+        trainer.workerIterationLimit = (iterations + threads - 1) / threads;
+        trainer.snapshotScheduler = snapshots;
+        trainer.iterationOffset = startIteration;
+        trainer.metrics = trainingMetrics;
+        trainer.setWorkerCount(threads);
+
+        Reporter reporter = new Reporter(reportSeconds, trainer::getQuantizationError, trainer::getTopographicError);
+        long trained;
+        while ((trained = trainer.getIterations()) < iterations) {
+            if (trainer.getFailure() != null) {
+                trainer.stop();
+                stopPipeline(pipeline);
+                throw new IllegalStateException("Training worker failed", trainer.getFailure());
+            }
+            Thread.sleep(10);
+            reporter.maybeReport(trained);
+        }
+        quantizationError = trainer.getQuantizationError();
+        topographicError = trainer.getTopographicError();
+        trainer.stop();
+        stopPipeline(pipeline);
+
+        return trainer.getIterations();
+    }
+
+    /**
+     * Start the sample pipeline, if there are producers
+     *
+     * @return the running pipeline or null
+     */
+    private SamplePipeline startPipeline() {
+        if (producers <= 0) {
+            return null;
+        }
+        SamplePipeline pipeline = new SamplePipeline(ringSize, PIPELINE_BLOCK_SIZE, () -> som.inputSize, () -> {
+            DatasetSampler sampler = dataset.createSampler(som.inputSize, randomStreams.next());
+            return (samples, count, inputSize) -> sampler.fill(samples, count);
+        });
+        pipeline.start(producers);
+        return pipeline;
+    }
+
+    /**
+     * Stop the sample pipeline and print its statistics
+     *
+     * @param pipeline The pipeline (or null)
+     */
+    private static void stopPipeline(SamplePipeline pipeline) {
+        if (pipeline == null) {
+            return;
+        }
+        System.out.println(String.format("Sample pipeline: %d blocks, queue depth %d/%d, training stalls %d (%.2fs), producer stalls %d (%.2fs)",
+                pipeline.getProducedBlocks(), pipeline.getQueueDepth(), pipeline.getRingSize(),
+                pipeline.getConsumerStalls(), pipeline.getConsumerStallSeconds(),
+                pipeline.getProducerStalls(), pipeline.getProducerStallSeconds()));
+        pipeline.stop();
+    }
+
+    /**
+     * Train with batch epochs
+     *
+     * @param iterations Number of samples to train
+     * @param eta Fraction of the way each neuron moves towards its batch result
+     * @param threads Number of parallel tasks
+     * @param reportSeconds Seconds between progress reports
+     * @return number of trained samples
+     */
+    public long trainBatch(long iterations, double eta, int threads, double reportSeconds) throws IOException {
+        BatchTrainer trainer = new BatchTrainer(som, threads);
+        trainer.metrics = trainingMetrics;
+        double[] batchInputs = new double[BATCH_SIZE * som.inputSize];
+        SamplePipeline pipeline = startPipeline();
+        SamplePipeline.Reader reader = pipeline != null ? pipeline.createReader() : null;
+        DatasetSampler sampler = dataset.createSampler(som.inputSize, randomStreams.next());
+
+        Reporter reporter = new Reporter(reportSeconds, trainer::getQuantizationError, trainer::getTopographicError);
+        long trained = 0;
+        while (trained < iterations) {
+            long start = System.nanoTime();
+            if (reader != null) {
+                reader.fill(batchInputs, BATCH_SIZE, som.inputSize);
+            }
+            else {
+                sampler.fill(batchInputs, BATCH_SIZE);
+            }
+            trainingMetrics.record(TrainingMetrics.Phase.SAMPLE, (System.nanoTime() - start) / BATCH_SIZE);
+            trainer.trainEpoch(batchInputs, BATCH_SIZE, eta);
+            trained += BATCH_SIZE;
+            reporter.maybeReport(trained);
+            if (snapshots != null) {
+                snapshots.maybeSnapshot(som, startIteration + trained);
+            }
+        }
+        quantizationError = trainer.getQuantizationError();
+        topographicError = trainer.getTopographicError();
+        trainer.shutdown();
+        stopPipeline(pipeline);
+
+        return trained;
+    }
+
+    /**
+     * Get the mean distance of the evaluation samples to their closest neuron
+     *
+     * @return quantization error
+     */
+    public double getQuantizationError() {
+        double[] input = new double[som.inputSize];
+        double sum = 0;
+        for (int i=0; i<EVALUATION_SAMPLES; i++) {
+            System.arraycopy(evaluationSamples, i * som.inputSize, input, 0, som.inputSize);
+            sum += Math.sqrt(som.getDistanceSq(input, som.getClosestNeuronIndexExact(input)));
+        }
+        return sum / EVALUATION_SAMPLES;
+    }
+
+    /**
+     * Prints the progress in fixed time intervals (and writes it into the metrics file)
+     */
+    private class Reporter {
+        private final long intervalNanos;
+        private final DoubleSupplier quantizationError;     // Running quantization error of the trainer
+        private final DoubleSupplier topographicError;      // Running topographic error of the trainer
+        private final long startTime = System.nanoTime();
+        private long lastTime = startTime;
+        private long lastIterations = 0;
+
+        Reporter(double intervalSeconds, DoubleSupplier quantizationError, DoubleSupplier topographicError) {
+            intervalNanos = (long)(intervalSeconds * 1e9);
+            this.quantizationError = quantizationError;
+            this.topographicError = topographicError;
+        }
+
+        void maybeReport(long iterations) throws IOException {
+            long now = System.nanoTime();
+            if (now - lastTime < intervalNanos) {
+                return;
+            }
+
+            double seconds = (now - startTime) * 1e-9;
+            double iterationsPerSecond = (iterations - lastIterations) * 1e9 / (now - lastTime);
+            double evaluationError = getQuantizationError();
+            System.out.println(String.format("[%8.2fs] iterations: %d  it/s: %.0f  quantization error: %.5f (running %.5f)  topographic error: %.4f",
+                    seconds,
+                    iterations,
+                    iterationsPerSecond,
+                    evaluationError,
+                    quantizationError.getAsDouble(),
+                    topographicError.getAsDouble()));
+            if (metrics != null) {
+                metrics.write(String.format(Locale.ROOT, "%.3f,%d,%.1f,%.6f,%.6f,%.6f,%.1f,%.1f,%.1f,%.2f", seconds, iterations,
+                        iterationsPerSecond, quantizationError.getAsDouble(), topographicError.getAsDouble(), evaluationError,
+                        trainingMetrics.getMeanLatency(TrainingMetrics.Phase.SAMPLE),
+                        trainingMetrics.getMeanLatency(TrainingMetrics.Phase.BMU_SEARCH),
+                        trainingMetrics.getMeanLatency(TrainingMetrics.Phase.UPDATE),
+                        trainingMetrics.getMeanNeuronsTouched()));
+                metrics.newLine();
+                metrics.flush();
+            }
+            lastTime = now;
+            lastIterations = iterations;
+        }
+    }
+
+    /**
+     * Write the weights of all neurons into a csv file.
+     * Each line contains the grid indices of a neuron followed by its weights.
+     *
+     * @param som The som to write
+     * @param fileName Output file
+     */
+    private static void writeWeights(SelfOrganizingMap som, String fileName) throws IOException {
+        double[] neuronWeights = new double[som.inputSize];
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            for (int n=0; n<som.numNeurons; n++) {
+                StringBuilder line = new StringBuilder();
+                for (int d=0; d<som.dimensions; d++) {
+                    line.append(som.neuronGridIndices[n * som.dimensions + d]).append(',');
+                }
+                som.weights.getNeuron(n, neuronWeights);
+                for (int i=0; i<som.inputSize; i++) {
+                    line.append(i == 0 ? "" : ",").append(neuronWeights[i]);
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Get the binary dataset file for the data option, converting CSV and TSV files
+     *
+     * @param fileName Binary, CSV or TSV file
+     * @return binary dataset file
+     */
+    private static Path openDataFile(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        String name = fileName.toLowerCase();
+        if (!name.endsWith(".csv") && !name.endsWith(".tsv") && !name.endsWith(".txt")) {
+            return path;
+        }
+        int[] lastPercent = {-1};
+        return CsvImporter.importIfNeeded(path, fraction -> {
+            int percent = (int) (fraction * 100);
+            if (percent / 10 != lastPercent[0] / 10) {
+                System.out.println("Importing " + path.getFileName() + ": " + percent + "%");
+            }
+            lastPercent[0] = percent;
+        });
+    }
+}
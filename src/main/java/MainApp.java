@@ -1,5 +1,6 @@
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
@@ -16,33 +17,86 @@ import javafx.scene.image.PixelWriter;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import datasets.CsvImporter;
+import datasets.Dataset;
+import datasets.DatasetRegistry;
+import datasets.DatasetSampler;
+import datasets.MappedDataset;
+import utils.BatchTrainer;
+import utils.BmuSearch;
+import utils.ParallelTrainer;
+import utils.Projection;
+import utils.RandomStreams;
+import utils.SamplePipeline;
+import utils.SnapshotScheduler;
 import utils.SelfOrganizingMap;
 import utils.Som3dCanvasPane;
+import utils.SomCheckpoint;
 import utils.SomWeightsPane;
+import utils.TrainingMetrics;
+import utils.WeightSnapshots;
+import utils.WeightStore;
+
+import javax.management.JMException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MainApp extends Application {
+    private static final int RING_SIZE = Integer.getInteger("som.ringSize", 16);   // Blocks of the sample pipeline
+    private static final int PIPELINE_BLOCK_SIZE = 256;                             // Samples per pipeline block
+    private static final int MAX_INPUT_SIZE = 4096;                                 // Largest input size of the spinner
+    private static final String LOAD_DATA_OPTION = "Load data\u2026";                // Dataset entry for loading a file
+
     public Som3dCanvasPane threeDVisualizer;                    // 3d visualizer
     public volatile SomWeightsPane weightsVisualizer;           // Weights visualizer
     public AnimationTimer animationTimer;                       // Timer for animating the iterations
     public volatile SelfOrganizingMap som;                      // Som instance
-    public TrainingThread trainingThread;                       // Thread for training the som in parallel
+    public ParallelTrainer trainer;                             // Worker threads for the online training
+    public TrainingThread trainingThread;                       // Thread for the batch training
     public Canvas distanceCanvas;                               // Canvas used to visualize the distance function
 
     public volatile double eta = 0.01;                          // Learning rate
-    public volatile int datasetIndex = 0;                       // Index of the training dataset
+    public volatile Dataset dataset = DatasetRegistry.get(0);   // Training dataset
     public volatile int numberOfNeurons = 400;                  // Wanted number of neurons for the som
     public volatile double phi = 0.5;                           // Neighbourhood function variable
     public volatile int dimensions = 2;                         // Number of som dimensions
-    public volatile long iteration = 0;                         // Current som training iteration
+    public volatile int inputSize = 3;                          // Number of values of each training sample
+    public final Projection projection = new Projection();      // Projection of the samples into the 3d view
+    public volatile BmuSearch.Type bmuSearchType = BmuSearch.Type.LINEAR; // Best matching unit search strategy
+    public volatile WeightStore.Type weightStoreType = WeightStore.Type.HEAP_DOUBLE; // Storage of the som weights
+    public final AtomicLong iteration = new AtomicLong();       // Iterations of the som before the running online training
+    public final TrainingMetrics metrics = new TrainingMetrics(); // Throughput and step latencies of the training
+    public final WeightSnapshots weightSnapshots = new WeightSnapshots(); // Copies of the weights for the visualizers
+    public volatile boolean batchTraining = false;              // Train with batch epochs on all cores
+    public volatile int workerCount = 1;                        // Number of online training threads
+    public volatile int producerCount = 0;                      // Number of sample producer threads (0 samples on the training threads)
+    public volatile SamplePipeline pipeline;                    // Running sample pipeline (null without producers)
     public Text iterationInfo;                                  // Label for the iteration information
+    public Text metricsOverlay;                                 // Training metrics shown over the 3d view
+    public Label errorInfo;                                     // Label for the running training errors
+    private Stage stage;                                        // Main window
+    private Spinner<Integer> inputSizeSpinner;                  // Input size control
+    private boolean restoringControls = false;                  // Controls get set to a loaded som, which must not be reset
+    private final RandomStreams randomStreams = new RandomStreams(); // Random streams of the samplers
+    private final SnapshotScheduler snapshots = new SnapshotScheduler(
+            Paths.get(System.getProperty("user.home"), "som-snapshots"), "som", 5); // Periodic snapshots (disabled by default)
 
     /**
-     * Class for the training thread. It takes the som of the app and its input generation function to
-     * train the som.
+     * Class for the batch training thread. It takes the som of the app and its input generation function to
+     * train the som with batch epochs on all cores.
      */
     public static class TrainingThread extends Thread {
+        private static final int BATCH_SIZE = 4096;             // Number of samples per batch epoch
         private volatile boolean stop = false;
+        private volatile BatchTrainer batchTrainer = null;
         public final MainApp app;
 
         public TrainingThread(MainApp app) {
@@ -52,20 +106,67 @@ public class MainApp extends Application {
         @Override
         public void run() {
             super.run();
-            double inputs[] = new double[app.som.inputSize];
-            System.out.println("Start training Som");
+            double batchInputs[] = new double[BATCH_SIZE * app.som.inputSize];
+            SelectedDatasetSampler sampler = app.new SelectedDatasetSampler();
+            SamplePipeline pipeline = app.pipeline;
+            SamplePipeline.Reader reader = pipeline != null ? pipeline.createReader() : null;
+            BatchTrainer batchTrainer = new BatchTrainer(app.som);
+            batchTrainer.metrics = app.metrics;
+            this.batchTrainer = batchTrainer;
+            System.out.println("Start batch training Som");
             while (!stop) {
-                app.fillInputData(inputs);
-                app.som.train(inputs, app.eta);
-                app.iteration++;
+                SelfOrganizingMap som = app.som;
+                if (batchTrainer.getSom() != som) {
+                    batchTrainer.setSom(som);
+                }
+                if (batchInputs.length != BATCH_SIZE * som.inputSize) {
+                    batchInputs = new double[BATCH_SIZE * som.inputSize];
+                }
+
+                long start = System.nanoTime();
+                if (reader != null) {
+                    reader.fill(batchInputs, BATCH_SIZE, som.inputSize);
+                }
+                else {
+                    sampler.get(som.inputSize).fill(batchInputs, BATCH_SIZE);
+                }
+                app.metrics.record(TrainingMetrics.Phase.SAMPLE, (System.nanoTime() - start) / BATCH_SIZE);
+                batchTrainer.trainEpoch(batchInputs, BATCH_SIZE, app.eta);
+                long iteration = app.iteration.addAndGet(BATCH_SIZE);
+                app.snapshots.maybeSnapshot(som, iteration + app.trainer.getIterations());
+                app.weightSnapshots.maybePublish(som);
             }
 
-            System.out.println("Stop training Som");
+            if (reader != null) {
+                reader.close();
+            }
+            batchTrainer.shutdown();
+            System.out.println("Stop batch training Som");
         }
 
         public void finishTraining() {
             this.stop = true;
         }
+
+        /**
+         * Get the running quantization error of the batch training
+         *
+         * @return quantization error (0.0 before the first epoch)
+         */
+        public double getQuantizationError() {
+            BatchTrainer batchTrainer = this.batchTrainer;
+            return batchTrainer != null ? batchTrainer.getQuantizationError() : 0.0;
+        }
+
+        /**
+         * Get the running topographic error of the batch training
+         *
+         * @return topographic error (0.0 before the first epoch)
+         */
+        public double getTopographicError() {
+            BatchTrainer batchTrainer = this.batchTrainer;
+            return batchTrainer != null ? batchTrainer.getTopographicError() : 0.0;
+        }
     }
 
     /**
@@ -76,9 +177,23 @@ public class MainApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) throws Exception {
+        stage = primaryStage;
 
         // create start som
-        som = new SelfOrganizingMap(3, dimensions, 10);
+        som = new SelfOrganizingMap(inputSize, dimensions, 10);
+        trainer = new ParallelTrainer(som, () -> {
+            SamplePipeline pipeline = this.pipeline;
+            return pipeline != null ? pipeline.createReader() : new SelectedDatasetSampler();
+        });
+        trainer.snapshotScheduler = snapshots;
+        trainer.metrics = metrics;
+        trainer.weightSnapshots = weightSnapshots;
+        weightSnapshots.publish(som);
+        try {
+            metrics.register("Interactive SOM visualizer");
+        } catch (JMException e) {
+            System.out.println("Training metrics are not available with JMX: " + e.getMessage());
+        }
 
         // initialize gui
         BorderPane rootPane = new BorderPane();
@@ -94,6 +209,8 @@ public class MainApp extends Application {
         primaryStage.setOnCloseRequest(event -> {
             stopTraining();
             stopAnimation();
+            snapshots.shutdown();
+            metrics.unregister();
         });
 
         primaryStage.show();
@@ -112,12 +229,15 @@ public class MainApp extends Application {
         BorderPane borderPane = new BorderPane();
         borderPane.setPadding(new Insets(10));
         threeDVisualizer = new Som3dCanvasPane(som, 400,400);
+        threeDVisualizer.projection = projection;
+        threeDVisualizer.weightSnapshots = weightSnapshots;
 
         VBox vBox = new VBox();
 
         CheckBox renderAxis = new CheckBox("Display axis");
         CheckBox renderData = new CheckBox("Display input");
         CheckBox renderSom = new CheckBox("Display map");
+        CheckBox renderMetrics = new CheckBox("Display metrics");
 
         renderAxis.selectedProperty().addListener(new ChangeListener<Boolean>() {
             @Override
@@ -140,13 +260,25 @@ public class MainApp extends Application {
             }
         });
 
+        // training metrics over the 3d view
+        metricsOverlay = new Text();
+        metricsOverlay.setMouseTransparent(true);
+        metricsOverlay.setVisible(false);
+        StackPane.setAlignment(metricsOverlay, Pos.TOP_LEFT);
+        renderMetrics.selectedProperty().addListener(new ChangeListener<Boolean>() {
+            @Override
+            public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+                metricsOverlay.setVisible(newValue);
+            }
+        });
+
         renderAxis.setSelected(threeDVisualizer.renderAxis);
         renderData.setSelected(threeDVisualizer.renderDataPoints);
         renderSom.setSelected(threeDVisualizer.renderSom);
 
-        vBox.getChildren().addAll(renderAxis, renderData, renderSom);
+        vBox.getChildren().addAll(renderAxis, renderData, renderSom, renderMetrics);
         borderPane.setRight(vBox);
-        borderPane.setCenter(threeDVisualizer);
+        borderPane.setCenter(new StackPane(threeDVisualizer, metricsOverlay));
 
         return borderPane;
     }
@@ -184,6 +316,8 @@ public class MainApp extends Application {
 
         // canvas
         weightsVisualizer = new SomWeightsPane(som, 10,10);
+        weightsVisualizer.setProjection(projection);
+        weightsVisualizer.setWeightSnapshots(weightSnapshots);
         GridPane.setHgrow(weightsVisualizer, Priority.ALWAYS);
         GridPane.setHgrow(canvasGrid, Priority.ALWAYS);
         canvasGrid.addRow(0, weightsVisualizer);
@@ -208,34 +342,21 @@ public class MainApp extends Application {
         // input combobox
         Label inputLabel = new Label("Input data: ");
         ObservableList<String> datasetOptions =
-                FXCollections.observableArrayList(
-                        "Full Space",
-                        "Ball (volume)",
-                        "Sphere (surface)",
-                        "Peanut volume",
-                        "1 area distribution",
-                        "2 area distribution",
-                        "3 area distribution",
-                        "Plane",
-                        "Mandelbrot set",
-                        "Mandelbrot outline"
-                );
-        final ComboBox inputCombobox = new ComboBox(datasetOptions);
+                FXCollections.observableArrayList(DatasetRegistry.getNames());
+        datasetOptions.add(LOAD_DATA_OPTION);
+        final ComboBox<String> inputCombobox = new ComboBox<>(datasetOptions);
         inputCombobox.valueProperty().addListener(new ChangeListener<String>() {
             @Override
-            public void changed(ObservableValue ov, String t, String t1) {
-                datasetIndex = datasetOptions.indexOf(t1);
-
-                // reset data distplay
-                int n = 10000;
-                threeDVisualizer.dataPoints = new double[n * 3];
-                double datap[] = new double[3];
-                for (int i=0; i<threeDVisualizer.dataPoints.length / 3; i++) {
-                    fillInputData(datap);
-                    threeDVisualizer.dataPoints[i * 3] = datap[0];
-                    threeDVisualizer.dataPoints[i * 3 + 1] = datap[1];
-                    threeDVisualizer.dataPoints[i * 3 + 2] = datap[2];
+            public void changed(ObservableValue<? extends String> ov, String t, String t1) {
+                if (LOAD_DATA_OPTION.equals(t1)) {
+                    // keep the current dataset until the file is loaded
+                    Platform.runLater(() -> {
+                        inputCombobox.setValue(t);
+                        loadDataFile(inputCombobox, datasetOptions, inputLabel);
+                    });
+                    return;
                 }
+                selectDataset(DatasetRegistry.get(datasetOptions.indexOf(t1)));
             }
         });
         inputCombobox.setValue(datasetOptions.get(0));
@@ -248,6 +369,7 @@ public class MainApp extends Application {
             public void changed(ObservableValue<? extends Number> ov,
                                 Number old_val, Number new_val) {
                 eta = Math.pow(10, new_val.doubleValue() - etaSlider.getMax());
+                trainer.eta = eta;
                 etaLabel.setText("Learning rate ( eta: " + String.format("%.3f", eta) + " )");
             }});
         etaSlider.setValue(Math.log10(eta) + etaSlider.getMax());
@@ -312,6 +434,152 @@ public class MainApp extends Application {
             }
         });
 
+        // input size spinner
+        Label inputSizeLabel = new Label("Input dimensions: ");
+        inputSizeSpinner = new Spinner<>(3, MAX_INPUT_SIZE, inputSize);
+        inputSizeSpinner.setEditable(true);
+        inputSizeSpinner.setPadding(basicInset);
+
+        // projection of the 3d view
+        Label projectionLabel = new Label("3d view projection (x, y, z components): ");
+        final ComboBox<Projection.Mode> projectionCombobox = new ComboBox<>(FXCollections.observableArrayList(Projection.Mode.values()));
+        projectionCombobox.setValue(projection.mode);
+        projectionCombobox.valueProperty().addListener(new ChangeListener<Projection.Mode>() {
+            @Override
+            public void changed(ObservableValue<? extends Projection.Mode> ov, Projection.Mode oldMode, Projection.Mode newMode) {
+                projection.mode = newMode;
+            }
+        });
+        HBox componentsBox = new HBox(2);
+        componentsBox.setPadding(basicInset);
+        List<Spinner<Integer>> componentSpinners = new ArrayList<>();
+        for (int k=0; k<3; k++) {
+            final int axis = k;
+            Spinner<Integer> componentSpinner = new Spinner<>(0, MAX_INPUT_SIZE - 1, projection.components[k]);
+            componentSpinner.setPrefWidth(70);
+            componentSpinner.valueProperty().addListener(new ChangeListener<Integer>() {
+                @Override
+                public void changed(ObservableValue<? extends Integer> ov, Integer oldValue, Integer newValue) {
+                    projection.components[axis] = Math.min(newValue, inputSize - 1);
+                }
+            });
+            componentSpinners.add(componentSpinner);
+            componentsBox.getChildren().add(componentSpinner);
+        }
+
+        inputSizeSpinner.valueProperty().addListener(new ChangeListener<Integer>() {
+            @Override
+            public void changed(ObservableValue<? extends Integer> ov, Integer oldValue, Integer newValue) {
+                inputSize = newValue;
+                for (int k=0; k<3; k++) {
+                    projection.components[k] = Math.min(componentSpinners.get(k).getValue(), inputSize - 1);
+                }
+                if (!restoringControls) {
+                    resetSom(false);
+                    updateDataPreview();
+                }
+            }
+        });
+
+        // bmu search combobox
+        Label bmuSearchLabel = new Label("Best matching unit search: ");
+        final ComboBox<BmuSearch.Type> bmuSearchCombobox = new ComboBox<>(FXCollections.observableArrayList(BmuSearch.Type.values()));
+        bmuSearchCombobox.setPadding(basicInset);
+        bmuSearchCombobox.valueProperty().addListener(new ChangeListener<BmuSearch.Type>() {
+            @Override
+            public void changed(ObservableValue<? extends BmuSearch.Type> ov, BmuSearch.Type oldType, BmuSearch.Type newType) {
+                bmuSearchType = newType;
+                som.setBmuSearchType(newType);
+            }
+        });
+        bmuSearchCombobox.setValue(bmuSearchType);
+
+        // weight storage combobox
+        Label weightStoreLabel = new Label("Weight storage: ");
+        final ComboBox<WeightStore.Type> weightStoreCombobox = new ComboBox<>(FXCollections.observableArrayList(WeightStore.Type.values()));
+        weightStoreCombobox.setPadding(basicInset);
+        weightStoreCombobox.setValue(weightStoreType);
+        weightStoreCombobox.valueProperty().addListener(new ChangeListener<WeightStore.Type>() {
+            @Override
+            public void changed(ObservableValue<? extends WeightStore.Type> ov, WeightStore.Type oldType, WeightStore.Type newType) {
+                weightStoreType = newType;
+                resetSom(true);
+            }
+        });
+
+        // training threads slider
+        Label workersLabel = new Label("Training threads: " + workerCount);
+        Slider workersSlider = new Slider(1, Math.max(2, Runtime.getRuntime().availableProcessors()), workerCount);
+        workersSlider.setMajorTickUnit(1);
+        workersSlider.setMinorTickCount(0);
+        workersSlider.setSnapToTicks(true);
+        workersSlider.valueProperty().addListener(new ChangeListener<Number>() {
+            public void changed(ObservableValue<? extends Number> ov,
+                                Number old_val, Number new_val) {
+                workerCount = (int)Math.round(new_val.doubleValue());
+                workersLabel.setText("Training threads: " + workerCount);
+                if (!batchTraining && trainer.getWorkerCount() > 0) {
+                    trainer.setWorkerCount(workerCount);
+                }
+            }});
+
+        // sampling threads slider
+        Label producersLabel = new Label("Sampling threads: " + producerCount);
+        Slider producersSlider = new Slider(0, Math.max(2, Runtime.getRuntime().availableProcessors()), producerCount);
+        producersSlider.setMajorTickUnit(1);
+        producersSlider.setMinorTickCount(0);
+        producersSlider.setSnapToTicks(true);
+        producersSlider.valueProperty().addListener(new ChangeListener<Number>() {
+            public void changed(ObservableValue<? extends Number> ov,
+                                Number old_val, Number new_val) {
+                int count = (int)Math.round(new_val.doubleValue());
+                if (count == producerCount) {
+                    return;
+                }
+                producersLabel.setText("Sampling threads: " + count);
+                boolean restart = trainingThread != null || trainer.getWorkerCount() > 0;
+                stopTraining();
+                producerCount = count;
+                if (restart) {
+                    startTraining();
+                }
+            }});
+
+        // striped locking checkbox
+        CheckBox lockingCheckbox = new CheckBox("Lock overlapping neuron updates");
+        lockingCheckbox.selectedProperty().addListener(new ChangeListener<Boolean>() {
+            @Override
+            public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+                trainer.stripedLocking = newValue;
+            }
+        });
+        lockingCheckbox.setSelected(trainer.stripedLocking);
+
+        // batch training checkbox
+        CheckBox batchTrainingCheckbox = new CheckBox("Batch training (all cores)");
+        batchTrainingCheckbox.setPadding(basicInset);
+        batchTrainingCheckbox.selectedProperty().addListener(new ChangeListener<Boolean>() {
+            @Override
+            public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+                boolean restart = trainingThread != null || trainer.getWorkerCount() > 0;
+                stopTraining();
+                batchTraining = newValue;
+                if (restart) {
+                    startTraining();
+                }
+            }
+        });
+        batchTrainingCheckbox.setSelected(batchTraining);
+
+        // snapshot checkbox
+        CheckBox snapshotCheckbox = new CheckBox("Snapshots every minute (~/som-snapshots)");
+        snapshotCheckbox.selectedProperty().addListener(new ChangeListener<Boolean>() {
+            @Override
+            public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+                snapshots.timeIntervalMillis = newValue ? 60000 : 0;
+            }
+        });
+
         // reset button
         Button resetButton = new Button("Reset neurons");
         resetButton.setOnAction(new EventHandler<ActionEvent>() {
@@ -320,9 +588,57 @@ public class MainApp extends Application {
             }
         });
 
+        // checkpoint buttons
+        Button saveButton = new Button("Save map\u2026");
+        saveButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override public void handle(ActionEvent e) {
+                File file = createCheckpointChooser("Save map").showSaveDialog(stage);
+                if (file != null) {
+                    try {
+                        new SomCheckpoint(som, iteration.get() + trainer.getIterations()).save(file.toPath());
+                    } catch (IOException ex) {
+                        new Alert(Alert.AlertType.ERROR, "Could not save " + file.getName() + ":\n" + ex.getMessage()).show();
+                    }
+                }
+            }
+        });
+        Button loadButton = new Button("Load map\u2026");
+        loadButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override public void handle(ActionEvent e) {
+                File file = createCheckpointChooser("Load map").showOpenDialog(stage);
+                if (file == null) {
+                    return;
+                }
+                SomCheckpoint checkpoint;
+                try {
+                    checkpoint = SomCheckpoint.load(file.toPath());
+                } catch (IOException | RuntimeException ex) {
+                    new Alert(Alert.AlertType.ERROR, "Could not load " + file.getName() + ":\n" + ex.getMessage()).show();
+                    return;
+                }
+
+                // show the parameters of the loaded som without creating a new one
+                SelfOrganizingMap loaded = checkpoint.som;
+                restoringControls = true;
+                inputSizeSpinner.getValueFactory().setValue(loaded.inputSize);
+                (loaded.dimensions == 1 ? rb1 : loaded.dimensions == 2 ? rb2 : rb3).setSelected(true);
+                neuronsSlider.setValue(Math.log10(loaded.numNeurons) * 1000);
+                phiSlider.setValue(1 / Math.sqrt(loaded.phi));
+                weightStoreCombobox.setValue(loaded.weights.getType());
+                restoringControls = false;
+
+                restoreCheckpoint(checkpoint);
+                updateNumNeruonsLabel(numNeuronsLabel);
+            }
+        });
+
         gridPane.addRow(rowIndex++, inputLabel);
         gridPane.addRow(rowIndex++, inputCombobox);
-        gridPane.addRow(rowIndex++, new Label(""));
+        gridPane.addRow(rowIndex++, inputSizeLabel);
+        gridPane.addRow(rowIndex++, inputSizeSpinner);
+        gridPane.addRow(rowIndex++, projectionLabel);
+        gridPane.addRow(rowIndex++, projectionCombobox);
+        gridPane.addRow(rowIndex++, componentsBox);
         gridPane.addRow(rowIndex++, dimensionLabel);
         gridPane.addRow(rowIndex++, dimensionsPane);
         gridPane.addRow(rowIndex++, etaLabel);
@@ -332,7 +648,21 @@ public class MainApp extends Application {
         gridPane.addRow(rowIndex++, phiSlider);
         gridPane.addRow(rowIndex++, numNeuronsLabel);
         gridPane.addRow(rowIndex++, neuronsSlider);
-        gridPane.addRow(rowIndex++, resetButton);
+        gridPane.addRow(rowIndex++, bmuSearchLabel);
+        gridPane.addRow(rowIndex++, bmuSearchCombobox);
+        gridPane.addRow(rowIndex++, weightStoreLabel);
+        gridPane.addRow(rowIndex++, weightStoreCombobox);
+        gridPane.addRow(rowIndex++, workersLabel);
+        gridPane.addRow(rowIndex++, workersSlider);
+        gridPane.addRow(rowIndex++, producersLabel);
+        gridPane.addRow(rowIndex++, producersSlider);
+        gridPane.addRow(rowIndex++, lockingCheckbox);
+        gridPane.addRow(rowIndex++, batchTrainingCheckbox);
+        gridPane.addRow(rowIndex++, snapshotCheckbox);
+        gridPane.addRow(rowIndex++, new HBox(5, resetButton, saveButton, loadButton));
+        errorInfo = new Label("Quantization error: -    Topographic error: -");
+        errorInfo.setPadding(basicInset);
+        gridPane.addRow(rowIndex++, errorInfo);
 
         return gridPane;
     }
@@ -388,28 +718,78 @@ public class MainApp extends Application {
      * Reset the som
      */
     public void resetSom(boolean tryKeepProgress) {
-        int neuronPerDim = 0;
-        if (dimensions == 1) {
-            neuronPerDim = numberOfNeurons;
-        }
-        else if (dimensions == 2){
-            neuronPerDim = (int)Math.round(Math.sqrt(numberOfNeurons));
-        }
-        else {
-            neuronPerDim = (int)Math.round(Math.pow(numberOfNeurons, 1. / 3.));
+        if (restoringControls) {
+            return;
         }
+        int neuronPerDim = SelfOrganizingMap.getNeuronPerDimension(numberOfNeurons, dimensions);
 
         if (tryKeepProgress) {
-            if (som.dimensions != dimensions || som.neuronPerDimension != neuronPerDim)
-            som = new SelfOrganizingMap(3, dimensions, neuronPerDim, som);
+            if (som.dimensions != dimensions || som.neuronPerDimension != neuronPerDim || som.weights.getType() != weightStoreType || som.inputSize != inputSize)
+            som = new SelfOrganizingMap(inputSize, dimensions, neuronPerDim, weightStoreType, som);
         }
         else {
-            som = new SelfOrganizingMap(3, dimensions, neuronPerDim);
-            iteration = 0;
+            som = new SelfOrganizingMap(inputSize, dimensions, neuronPerDim, weightStoreType);
+            iteration.set(0);
+            trainer.resetIterations();
+            trainer.iterationOffset = 0;
         }
         som.phi = phi;
+        som.setBmuSearchType(bmuSearchType);
+        trainer.setSom(som);
+        metrics.reset();
+        weightSnapshots.publish(som);
+        threeDVisualizer.som = som;
+        weightsVisualizer.setSom(som);
+    }
+
+    /**
+     * Continue with the som of a checkpoint
+     *
+     * @param checkpoint The loaded checkpoint
+     */
+    public void restoreCheckpoint(SomCheckpoint checkpoint) {
+        som = checkpoint.som;
+        inputSize = som.inputSize;
+        dimensions = som.dimensions;
+        numberOfNeurons = som.numNeurons;
+        phi = som.phi;
+        weightStoreType = som.weights.getType();
+        som.setBmuSearchType(bmuSearchType);
+
+        trainer.resetIterations();
+        iteration.set(checkpoint.iteration);
+        trainer.iterationOffset = checkpoint.iteration;
+        trainer.setSom(som);
+        metrics.reset();
+        weightSnapshots.publish(som);
         threeDVisualizer.som = som;
         weightsVisualizer.setSom(som);
+        updateDataPreview();
+    }
+
+    /**
+     * Create a file chooser for checkpoint files
+     *
+     * @param title Title of the dialog
+     * @return the file chooser
+     */
+    private static FileChooser createCheckpointChooser(String title) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Som checkpoints", "*.somc"));
+        return fileChooser;
+    }
+
+    /**
+     * Fill the data preview of the 3d view with new samples of the current dataset
+     */
+    public void updateDataPreview() {
+        int n = 10000;
+        int size = inputSize;
+        double dataPoints[] = new double[n * size];
+        dataset.createSampler(size, randomStreams.next()).fill(dataPoints, n);
+        threeDVisualizer.dataPointSize = size;
+        threeDVisualizer.dataPoints = dataPoints;
     }
 
     /**
@@ -436,21 +816,111 @@ public class MainApp extends Application {
     }
 
     /**
-     * Start the training thread
+     * Train with another dataset. Stored vectors set the input size to their own size,
+     * since the samplers would cut or pad them otherwise.
+     *
+     * @param selected The dataset
+     */
+    private void selectDataset(Dataset selected) {
+        dataset = selected;
+        int dimension = selected.dimension;
+        if (dimension > 0 && dimension != inputSize) {
+            if (dimension < 3 || dimension > MAX_INPUT_SIZE) {
+                new Alert(Alert.AlertType.WARNING, selected.name + " has " + dimension + " values per vector, but the input size "
+                        + "must be in [3 ; " + MAX_INPUT_SIZE + "]. The vectors are padded with zeros or cut to "
+                        + inputSize + " values.").show();
+            }
+            else {
+                restoringControls = true;
+                inputSizeSpinner.getValueFactory().setValue(dimension);
+                restoringControls = false;
+                resetSom(false);
+            }
+        }
+        updateDataPreview();
+    }
+
+    /**
+     * Let the user choose a data file and add it as dataset. CSV and TSV files get converted into the binary
+     * dataset format in the background first.
+     *
+     * @param inputCombobox Combobox of the datasets, which selects the new dataset
+     * @param datasetOptions Names of the datasets in the combobox
+     * @param inputLabel Label which shows the import progress
+     */
+    private void loadDataFile(ComboBox<String> inputCombobox, ObservableList<String> datasetOptions, Label inputLabel) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Load training data");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Data files", "*.csv", "*.tsv", "*.txt", "*.somd"),
+                new FileChooser.ExtensionFilter("All files", "*.*"));
+        File file = fileChooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        Thread importThread = new Thread(() -> {
+            try {
+                Path path = file.toPath();
+                if (!file.getName().toLowerCase().endsWith(".somd")) {
+                    path = CsvImporter.importIfNeeded(path, fraction -> Platform.runLater(() ->
+                            inputLabel.setText("Input data: importing " + (int) (fraction * 100) + "%")));
+                }
+                Dataset loaded = MappedDataset.open(path).toDataset(MappedDataset.AccessMode.SHUFFLED);
+                Platform.runLater(() -> {
+                    inputLabel.setText("Input data: ");
+                    DatasetRegistry.register(loaded);
+                    datasetOptions.add(datasetOptions.size() - 1, loaded.name);
+                    inputCombobox.setValue(loaded.name);
+                });
+            } catch (IOException | RuntimeException e) {
+                Platform.runLater(() -> {
+                    inputLabel.setText("Input data: ");
+                    new Alert(Alert.AlertType.ERROR, "Could not load " + file.getName() + ":\n" + e.getMessage()).show();
+                });
+            }
+        }, "Data import");
+        importThread.setDaemon(true);
+        importThread.start();
+    }
+
+    /**
+     * Start the training workers (or the batch training thread)
      */
     public void startTraining() {
-        trainingThread = new TrainingThread(this);
-        trainingThread.start();
+        if (producerCount > 0) {
+            pipeline = new SamplePipeline(RING_SIZE, PIPELINE_BLOCK_SIZE, () -> som.inputSize, SelectedDatasetSampler::new);
+            pipeline.start(producerCount);
+        }
+        if (batchTraining) {
+            trainingThread = new TrainingThread(this);
+            trainingThread.start();
+        }
+        else {
+            trainer.iterationOffset = iteration.get();
+            trainer.setWorkerCount(workerCount);
+        }
     }
 
     /**
-     * Stop the training thread
+     * Stop the training workers and the batch training thread
      */
     public void stopTraining() {
+        trainer.stop();
         if (trainingThread != null) {
             trainingThread.finishTraining();
+            try {
+                trainingThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             trainingThread = null;
         }
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+        weightSnapshots.publish(som);
     }
 
     /**
@@ -461,202 +931,60 @@ public class MainApp extends Application {
      * @param now
      */
     public void updateVisuals(long now) {
-        iterationInfo.setText("Iteration: " + iteration);
+        double hitRate = batchTraining ? som.getBmuSearch().getHitRate() : trainer.getBmuHitRate();
+        StringBuilder rates = new StringBuilder();
+        for (double rate : trainer.getIterationsPerSecond()) {
+            rates.append(rates.length() == 0 ? "" : " | ").append(String.format("%.0f", rate));
+        }
+        TrainingThread trainingThread = this.trainingThread;
+        double quantizationError = trainingThread != null ? trainingThread.getQuantizationError() : trainer.getQuantizationError();
+        double topographicError = trainingThread != null ? trainingThread.getTopographicError() : trainer.getTopographicError();
+        errorInfo.setText("Quantization error: " + String.format("%.4f", quantizationError)
+                + "    Topographic error: " + String.format("%.1f", topographicError * 100) + "%");
+
+        SamplePipeline pipeline = this.pipeline;
+        if (metricsOverlay.isVisible()) {
+            metricsOverlay.setText(metrics.getSummary());
+        }
+
+        iterationInfo.setText("Iteration: " + (iteration.get() + trainer.getIterations())
+                + "    BMU hit rate: " + String.format("%.1f", hitRate * 100) + "%"
+                + (rates.length() > 0 ? "    it/s per thread: " + rates : "")
+                + (pipeline != null ? "    sample queue: " + pipeline.getQueueDepth() + "/" + pipeline.getRingSize()
+                        + "  training stalls: " + pipeline.getConsumerStalls() : ""));
     }
 
     /**
-     * This method generates the input data for the som training thread.
-     *
-     * @param input Input array which will be set to the new input values.
+     * Sampler of one training thread, which follows the dataset selected in the user interface.
      */
-    public void fillInputData(double[] input) {
-        double distanceSq = 0;
-        double distance = 0;
-        switch (datasetIndex) {
-            case 0:
-                // full axis
-                for (int i=0; i<input.length; i++) {
-                    input[i] = Math.random() * 2 - 1;
-                }
-                break;
-
-            case 1:
-                // sphere volume
-                do {
-                    distanceSq = 0;
-                    for (int i = 0; i < input.length; i++) {
-                        input[i] = Math.random() * 2 - 1;
-                        distanceSq += input[i] * input[i];
-                    }
-                } while (distanceSq > 1);
-                break;
-
-            case 2:
-                // sphere surface
-                do {
-                    distanceSq = 0;
-                    for (int i = 0; i < input.length; i++) {
-                        input[i] = Math.random() * 2 - 1;
-                        distanceSq += input[i] * input[i];
-                    }
-                } while (distanceSq > 1 && distanceSq <= 0.000001);
-
-                distance = Math.sqrt(distanceSq);
-                for (int i=0; i<input.length; i++) {
-                    input[i] /= distance;
-                }
-
-                break;
-
-            case 3:
-                // peanut
-            {
-                double spheresRadius = 0.6;
-                spheresRadius *= spheresRadius;
-                double distanceSq2 = 0;
-                do {
-                    distanceSq = 0;
-                    distanceSq2 = 0;
-                    for (int i = 0; i < input.length; i++) {
-                        input[i] = Math.random() * 2 - 1;
-                        distanceSq += (input[i] + 0.25) * (input[i] + 0.25);
-                        distanceSq2 += (input[i] - 0.25) * (input[i] - 0.25);
-                    }
-                } while (distanceSq > spheresRadius && distanceSq2 > spheresRadius);
+    public class SelectedDatasetSampler implements ParallelTrainer.SampleSource, SamplePipeline.BlockSource {
+        private final SplittableRandom random = randomStreams.next();
+        private Dataset samplerDataset;         // Dataset of the current sampler
+        private DatasetSampler sampler;         // Current sampler
+
+        /**
+         * Get a sampler of the selected dataset
+         *
+         * @param inputSize Number of values of each sample
+         * @return sampler, which is only recreated after the dataset or input size changed
+         */
+        public DatasetSampler get(int inputSize) {
+            Dataset selected = dataset;
+            if (sampler == null || samplerDataset != selected || sampler.getInputSize() != inputSize) {
+                samplerDataset = selected;
+                sampler = selected.createSampler(inputSize, random);
             }
-            break;
-
-            case 4:
-            case 5:
-            case 6:
-                // n-point density
-                int index = (int)(Math.random() * (datasetIndex - 3));
-
-                switch (index) {
-                    case 0:
-                        setDistributionPoint(input, 0, 0, 0);
-                        break;
-                    case 1:
-                        setDistributionPoint(input, 0.5, Math.random() * 0.1 + 0.1, Math.random() * 0.2 + 0.2);
-                        break;
-
-                    default:
-                        double f = Math.random();
-                        double sX = Math.sin(f) * 0.3;
-                        double sY = Math.cos(f) * 0.5;
-                        setDistributionPoint(input, -0.5 + sX, 1. - sY, -0.8);
-                }
-                break;
-
-            case 7:
-                // plane
-                for (int i = 0; i < input.length; i++) {
-                    if (i < 2) {
-                        input[i] = Math.random() * 2 - 1;
-                    }
-                    else {
-                        input[i] = 0;
-                    }
-                }
-                break;
-
-            case 8:
-                // mandelbrot set
-                while (true) {
-                    double ci = Math.random() * 2 - 1.;
-                    double cr = Math.random() * 2 - 1.5;
-                    double z0 = Math.random() * 2 - 1.;
-                    if (checkInMandelbrotSet(ci, cr, 0)) {
-                        input[0] = cr + 0.5;
-                        input[1] = ci;
-                        input[2] = 0;
-                        break;
-                    }
-                }
-                break;
-
-            case 9:
-                // mandelbrot outline
-                while (true) {
-                    double ci = Math.random() * 2 - 1.;
-                    double cr = Math.random() * 2 - 1.5;
-                    double z0 = Math.random() * 2 - 1.;
-                    if (checkInMandelbrotOutline(ci, cr, 0)) {
-                        input[0] = cr + 0.5;
-                        input[1] = ci;
-                        input[2] = 0;
-                        break;
-                    }
-                }
-                break;
-
+            return sampler;
         }
-    }
 
-    public void setDistributionPoint(double input[], double x, double y, double z) {
-        while (true) {
-            double dx = Math.random() * 4. - 2.;
-            double dy = Math.random() * 4. - 2.;
-            double dz = Math.random() * 4. - 2.;
-
-            double dSq = dx * dx + dy * dy + dz * dz;
-            dSq = dSq * dSq;
-            dSq = dSq * dSq;
-            dSq = dSq * dSq;
-            dSq = dSq * dSq;
-            dSq = (dSq * dSq + 1.0) * 0.1;
-
-            dx *= dSq;
-            dy *= dSq;
-            dz *= dSq;
-
-            dx += x;
-            dy += y;
-            dz += z;
-
-            if (
-                    dx >= -1 && dx <= 1. &&
-                    dy >= -1 && dy <= 1. &&
-                    dz >= -1 && dz <= 1.) {
-                input[0] = dx;
-                input[1] = dy;
-                input[2] = dz;
-                break;
-            }
-        }
-    }
-
-    // Mandelbrot set implementation based on
-    // https://www.hameister.org/projects_fractal.html
-    public boolean checkInMandelbrotSet(double ci, double c, double z0) {
-        double zi = 0;
-        double z = z0;
-        for (int i = 0; i < 50; i++) {
-            double ziT = 2 * (z * zi);
-            double zT = z * z - (zi * zi);
-            z = zT + c;
-            zi = ziT + ci;
-            if (z * z + zi * zi >= 4.0) {
-                return false;
-            }
+        @Override
+        public void fill(double[] input) {
+            get(input.length).fill(input);
         }
-        return true;
-    }
 
-    public boolean checkInMandelbrotOutline(double ci, double c, double z0) {
-        double zi = 0;
-        double z = z0;
-        for (int i = 0; i < 50; i++) {
-            double ziT = 2 * (z * zi);
-            double zT = z * z - (zi * zi);
-            z = zT + c;
-            zi = ziT + ci;
-            if (z * z + zi * zi >= 4.0) {
-                return i > 10;
-            }
+        @Override
+        public void fill(double[] samples, int count, int inputSize) {
+            get(inputSize).fill(samples, count);
         }
-        return false;
     }
-
-
 }
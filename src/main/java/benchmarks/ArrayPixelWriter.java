@@ -0,0 +1,75 @@
+package benchmarks;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.paint.Color;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Pixel writer into an int array of argb values, for rendering without a canvas.
+ */
+public class ArrayPixelWriter implements PixelWriter {
+
+    public final int width;         // width in pixels
+    public final int height;        // height in pixels
+    public final int[] pixels;      // argb pixels, row by row
+
+    public ArrayPixelWriter(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    @Override
+    public PixelFormat<IntBuffer> getPixelFormat() {
+        return PixelFormat.getIntArgbInstance();
+    }
+
+    @Override
+    public void setArgb(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    @Override
+    public void setColor(int x, int y, Color c) {
+        setArgb(x, y, ((int) Math.round(c.getOpacity() * 255) << 24)
+                | ((int) Math.round(c.getRed() * 255) << 16)
+                | ((int) Math.round(c.getGreen() * 255) << 8)
+                | (int) Math.round(c.getBlue() * 255));
+    }
+
+    @Override
+    public <T extends Buffer> void setPixels(int x, int y, int w, int h, PixelFormat<T> pixelformat, T buffer, int scanlineStride) {
+        if (!(buffer instanceof IntBuffer)) {
+            throw new UnsupportedOperationException("Only int argb pixels are supported");
+        }
+        IntBuffer ints = (IntBuffer) buffer;
+        int offset = ints.position();
+        for (int row=0; row<h; row++) {
+            for (int col=0; col<w; col++) {
+                pixels[(y + row) * width + x + col] = ints.get(offset + row * scanlineStride + col);
+            }
+        }
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, PixelFormat<ByteBuffer> pixelformat, byte[] buffer, int offset, int scanlineStride) {
+        throw new UnsupportedOperationException("Only int argb pixels are supported");
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, PixelFormat<IntBuffer> pixelformat, int[] buffer, int offset, int scanlineStride) {
+        for (int row=0; row<h; row++) {
+            System.arraycopy(buffer, offset + row * scanlineStride, pixels, (y + row) * width + x, w);
+        }
+    }
+
+    @Override
+    public void setPixels(int dstx, int dsty, int w, int h, PixelReader reader, int srcx, int srcy) {
+        throw new UnsupportedOperationException("Only int argb pixels are supported");
+    }
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+import java.util.List;
+
+/**
+ * A group of benchmark cases, usually one operation with different parameters.
+ */
+public interface Benchmark {
+
+    /**
+     * Get the name of the benchmark
+     *
+     * @return name used in the reports and the filter
+     */
+    String getName();
+
+    /**
+     * Get all parameter combinations of this benchmark
+     *
+     * @return cases in a fixed order
+     */
+    List<BenchmarkCase> getCases();
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.function.Supplier;
+
+/**
+ * One benchmark with one set of parameters.
+ *
+ * The setup runs right before the measurement, so the state of a case only lives while it is measured.
+ */
+public class BenchmarkCase {
+
+    /**
+     * The measured operation
+     */
+    public interface Operation {
+
+        /**
+         * Run the operation once
+         *
+         * @return any value depending on the result, so the JIT can not remove the work
+         */
+        long run();
+    }
+
+    public final String benchmark;              // Name of the benchmark
+    public final String parameters;             // Parameter description, e.g. "dimensions=2 neurons=1000"
+    private final Supplier<Operation> setup;    // Creates the state and the operation
+
+    public BenchmarkCase(String benchmark, String parameters, Supplier<Operation> setup) {
+        this.benchmark = benchmark;
+        this.parameters = parameters;
+        this.setup = setup;
+    }
+
+    /**
+     * Create the state of this case
+     *
+     * @return the operation to measure
+     */
+    public Operation setup() {
+        return setup.get();
+    }
+
+    /**
+     * Get the key identifying this case in result files
+     *
+     * @return benchmark name and parameters
+     */
+    public String getKey() {
+        return benchmark + " " + parameters;
+    }
+}
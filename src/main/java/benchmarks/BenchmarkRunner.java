@@ -0,0 +1,283 @@
+package benchmarks;
+
+import utils.CommandLineOptions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmark suite and compares the results with a saved baseline.
+ *
+ * Every case runs in its own JVM by default, so the JIT profile of one case does not influence
+ * the next one. Results are operations per second with the standard deviation of the measurement
+ * iterations as error.
+ *
+ * Usage: BenchmarkRunner [--name=value ...]
+ *
+ *   --filter=regex         Only run cases whose "benchmark parameters" key contains a match
+ *   --warmup=3             Number of warmup iterations
+ *   --iterations=5         Number of measurement iterations
+ *   --time=300             Milliseconds per iteration
+ *   --fork=true            Run every case in a new JVM
+ *   --timeout=seconds      Kill a forked case after this time (default: 60 plus 10 times the iteration time)
+ *   --output=results.csv   Save the results
+ *   --baseline=base.csv    Compare the results with saved ones
+ *   --list                 Only list the cases
+ */
+public class BenchmarkRunner {
+    private static final String RESULT_PREFIX = "RESULT ";
+
+    public static volatile long sink;           // Receives the operation results, so they are not removed
+
+    /**
+     * Get all benchmarks of the suite
+     *
+     * @return benchmarks in a fixed order
+     */
+    public static List<Benchmark> getBenchmarks() {
+        return Arrays.asList(
+                new TrainBenchmark(),
+                new BmuSearchBenchmark(),
+                new WeightStoreBenchmark(),
+                new SamplingBenchmark(),
+                new RenderBenchmark());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLineOptions.parse(args);
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        long timeMillis = Long.parseLong(options.getOrDefault("time", "300"));
+
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (Benchmark benchmark : getBenchmarks()) {
+            cases.addAll(benchmark.getCases());
+        }
+
+        // child process: measure a single case
+        if (options.containsKey("run-case")) {
+            BenchmarkCase benchmarkCase = cases.get(Integer.parseInt(options.get("run-case")));
+            double[] result = measure(benchmarkCase, warmup, iterations, timeMillis);
+            System.out.println(RESULT_PREFIX + result[0] + " " + result[1]);
+            return;
+        }
+
+        Pattern filter = Pattern.compile(options.getOrDefault("filter", ""));
+        boolean fork = Boolean.parseBoolean(options.getOrDefault("fork", "true"));
+        long timeoutSeconds = Long.parseLong(options.getOrDefault("timeout",
+                Long.toString(60 + 10 * (warmup + iterations) * timeMillis / 1000)));
+        Map<String, double[]> baseline = options.containsKey("baseline")
+                ? readResults(options.get("baseline"))
+                : new HashMap<>();
+
+        Map<String, double[]> results = new LinkedHashMap<>();
+        List<String> failed = new ArrayList<>();
+        for (int i=0; i<cases.size(); i++) {
+            BenchmarkCase benchmarkCase = cases.get(i);
+            if (!filter.matcher(benchmarkCase.getKey()).find()) {
+                continue;
+            }
+            if (options.containsKey("list")) {
+                System.out.println(benchmarkCase.getKey());
+                continue;
+            }
+
+            double[] result;
+            try {
+                result = fork
+                        ? measureForked(i, warmup, iterations, timeMillis, timeoutSeconds)
+                        : measure(benchmarkCase, warmup, iterations, timeMillis);
+            } catch (IllegalStateException e) {
+                // one broken case should not stop the suite
+                failed.add(benchmarkCase.getKey());
+                System.out.println(String.format("%-70s FAILED: %s", benchmarkCase.getKey(), e.getMessage()));
+                continue;
+            }
+            results.put(benchmarkCase.getKey(), result);
+            System.out.println(format(benchmarkCase.getKey(), result, baseline.get(benchmarkCase.getKey())));
+        }
+
+        if (options.containsKey("output")) {
+            writeResults(options.get("output"), results);
+        }
+        if (!failed.isEmpty()) {
+            System.out.println(failed.size() + " case(s) failed: " + failed);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measure one case in the current JVM
+     *
+     * @param benchmarkCase The case to measure
+     * @param warmup Number of warmup iterations
+     * @param iterations Number of measurement iterations
+     * @param timeMillis Milliseconds per iteration
+     * @return operations per second and its standard deviation
+     */
+    public static double[] measure(BenchmarkCase benchmarkCase, int warmup, int iterations, long timeMillis) {
+        BenchmarkCase.Operation operation = benchmarkCase.setup();
+        for (int i=0; i<warmup; i++) {
+            runIteration(operation, timeMillis);
+        }
+
+        double[] scores = new double[iterations];
+        for (int i=0; i<iterations; i++) {
+            scores[i] = runIteration(operation, timeMillis);
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / iterations;
+        }
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+        }
+        return new double[] {mean, Math.sqrt(variance)};
+    }
+
+    /**
+     * Run the operation for a fixed time
+     *
+     * @param operation The operation to run
+     * @param timeMillis Milliseconds to run
+     * @return operations per second
+     */
+    private static double runIteration(BenchmarkCase.Operation operation, long timeMillis) {
+        long timeNanos = timeMillis * 1000000L;
+        long result = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            result += operation.run();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < timeNanos);
+
+        sink = result;
+        return count * 1e9 / elapsed;
+    }
+
+    /**
+     * Measure one case in a new JVM with the same class path and JVM arguments
+     *
+     * @param caseIndex Index of the case in the suite
+     * @param warmup Number of warmup iterations
+     * @param iterations Number of measurement iterations
+     * @param timeMillis Milliseconds per iteration
+     * @param timeoutSeconds Seconds until the JVM gets killed
+     * @return operations per second and its standard deviation
+     * @throws IllegalStateException if the case fails or times out
+     */
+    private static double[] measureForked(int caseIndex, int warmup, int iterations, long timeMillis, long timeoutSeconds) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BenchmarkRunner.class.getName());
+        command.add("--run-case=" + caseIndex);
+        command.add("--warmup=" + warmup);
+        command.add("--iterations=" + iterations);
+        command.add("--time=" + timeMillis);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        double[][] result = new double[1][];
+        Thread outputReader = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX)) {
+                        String[] parts = line.substring(RESULT_PREFIX.length()).split(" ");
+                        result[0] = new double[] {Double.parseDouble(parts[0]), Double.parseDouble(parts[1])};
+                    }
+                    else {
+                        System.out.println(line);
+                    }
+                }
+            } catch (IOException e) {
+                // the process was killed
+            }
+        }, "Benchmark output");
+        outputReader.setDaemon(true);
+        outputReader.start();
+
+        if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+            outputReader.join(1000);
+            throw new IllegalStateException("Benchmark case " + caseIndex + " timed out after " + timeoutSeconds + " s");
+        }
+        outputReader.join();
+        if (process.exitValue() != 0 || result[0] == null) {
+            throw new IllegalStateException("Benchmark case " + caseIndex + " failed");
+        }
+        return result[0];
+    }
+
+    /**
+     * Format one result line, with the change to the baseline if there is one
+     *
+     * @param key Key of the case
+     * @param result Score and error
+     * @param baseline Score and error of the baseline (or null)
+     * @return formatted line
+     */
+    private static String format(String key, double[] result, double[] baseline) {
+        String line = String.format("%-70s %14.1f +- %10.1f ops/s", key, result[0], result[1]);
+        if (baseline != null) {
+            double change = (result[0] - baseline[0]) / baseline[0] * 100;
+            boolean significant = Math.abs(result[0] - baseline[0]) > result[1] + baseline[1];
+            line += String.format("  %+7.1f%%%s", change, significant ? (change > 0 ? " faster" : " SLOWER") : "");
+        }
+        return line;
+    }
+
+    /**
+     * Write results into a csv file (key, score, error)
+     *
+     * @param fileName Output file
+     * @param results Results by case key
+     */
+    private static void writeResults(String fileName, Map<String, double[]> results) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, double[]> entry : results.entrySet()) {
+                writer.write(entry.getKey() + "," + entry.getValue()[0] + "," + entry.getValue()[1]);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Read results written by writeResults
+     *
+     * @param fileName Input file
+     * @return results by case key
+     */
+    private static Map<String, double[]> readResults(String fileName) throws IOException {
+        Map<String, double[]> results = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String[] parts = line.split(",");
+            if (parts.length == 3) {
+                results.put(parts[0], new double[] {Double.parseDouble(parts[1]), Double.parseDouble(parts[2])});
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import utils.BmuSearch;
+import utils.SelfOrganizingMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Best matching unit searches of all search strategies on a trained 2d map.
+ */
+public class BmuSearchBenchmark implements Benchmark {
+    private static final int[] NEURONS = {1000, 10000, 100000};
+    private static final int[] INPUT_SIZES = {3, 16, 64};
+    private static final int TRAINING_STEPS = 20000;
+    private static final int SAMPLE_COUNT = 1024;
+
+    @Override
+    public String getName() {
+        return "bmu";
+    }
+
+    @Override
+    public List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (BmuSearch.Type type : BmuSearch.Type.values()) {
+            for (int neurons : NEURONS) {
+                for (int inputSize : INPUT_SIZES) {
+                    cases.add(new BenchmarkCase(getName(),
+                            "search=" + type.name() + " neurons=" + neurons + " inputSize=" + inputSize,
+                            () -> setup(type, neurons, inputSize)));
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static BenchmarkCase.Operation setup(BmuSearch.Type type, int neurons, int inputSize) {
+        SelfOrganizingMap som = new SelfOrganizingMap(inputSize, 2,
+                SelfOrganizingMap.getNeuronPerDimension(neurons, 2));
+
+        // an untrained map has no structure the accelerated searches could use
+        double[][] samples = TrainBenchmark.createSamples(SAMPLE_COUNT, inputSize, 42);
+        som.phi = 0.5;
+        for (int i=0; i<TRAINING_STEPS; i++) {
+            som.phi = 0.5 * (1. - (double) i / TRAINING_STEPS) + 0.01;
+            som.train(samples[i & (SAMPLE_COUNT - 1)], 0.05);
+        }
+
+        som.setBmuSearchType(type);
+        BmuSearch search = som.getBmuSearch();
+        int[] next = new int[1];
+        return () -> search.getClosestNeuronIndex(samples[next[0]++ & (SAMPLE_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import datasets.DatasetRegistry;
+import utils.Projection;
+import utils.SelfOrganizingMap;
+import utils.Som3dScene;
+import utils.SomWeightsPane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Off-screen rendering of the weights view and building the 3d scene.
+ *
+ * Both run without a canvas, so only the work done per frame on the application thread is measured,
+ * not the drawing of JavaFX itself.
+ */
+public class RenderBenchmark implements Benchmark {
+    private static final int[] NEURONS = {100, 1000, 10000};
+    private static final int DATA_POINTS = 10000;
+
+    @Override
+    public String getName() {
+        return "render";
+    }
+
+    @Override
+    public List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (int dimensions=1; dimensions<=3; dimensions++) {
+            for (int neurons : NEURONS) {
+                int d = dimensions;
+                cases.add(new BenchmarkCase(getName(), "view=weights dimensions=" + d + " neurons=" + neurons,
+                        () -> setupWeights(d, neurons)));
+            }
+        }
+        for (int dimensions=1; dimensions<=3; dimensions++) {
+            for (int neurons : NEURONS) {
+                int d = dimensions;
+                cases.add(new BenchmarkCase(getName(), "view=scene dimensions=" + d + " neurons=" + neurons,
+                        () -> setupScene(d, neurons)));
+            }
+        }
+        return cases;
+    }
+
+    private static SelfOrganizingMap createSom(int dimensions, int neurons) {
+        return new SelfOrganizingMap(3, dimensions, SelfOrganizingMap.getNeuronPerDimension(neurons, dimensions));
+    }
+
+    private static BenchmarkCase.Operation setupWeights(int dimensions, int neurons) {
+        SelfOrganizingMap som = createSom(dimensions, neurons);
+        Projection projection = new Projection();
+
+        // same canvas sizes as the application uses
+        int width = dimensions == 1 ? 400 : dimensions == 2 ? 150 : 44 * som.neuronPerDimension;
+        int height = dimensions == 1 ? 20 : dimensions == 2 ? 150 : 44;
+        ArrayPixelWriter writer = new ArrayPixelWriter(width, height);
+        SomWeightsPane.Renderer renderer = new SomWeightsPane.Renderer();
+        return () -> {
+            renderer.fill(som, projection, writer, width, height);
+            return writer.pixels[0];
+        };
+    }
+
+    private static BenchmarkCase.Operation setupScene(int dimensions, int neurons) {
+        SelfOrganizingMap som = createSom(dimensions, neurons);
+        double[] dataPoints = new double[DATA_POINTS * 3];
+        DatasetRegistry.get(0).createSampler(3, new SplittableRandom(42)).fill(dataPoints, DATA_POINTS);
+
+        Som3dScene scene = new Som3dScene();
+        double[] rotation = new double[1];
+        return () -> {
+            rotation[0] += 0.01;
+            scene.build(som, dataPoints, 3, rotation[0], 0.5, 0., 300.);
+            return 1;
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import datasets.Dataset;
+import datasets.DatasetRegistry;
+import datasets.DatasetSampler;
+import datasets.MandelbrotSampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Drawing training samples from each dataset, one by one and in batches. The Mandelbrot samplers
+ * are also measured with different pool resolutions (0 is rejection sampling).
+ */
+public class SamplingBenchmark implements Benchmark {
+    private static final int[] INPUT_SIZES = {3, 64};
+    private static final int BATCH_SIZE = 256;
+    private static final int[] MANDELBROT_RESOLUTIONS = {0, 256, 1024, 4096};
+
+    @Override
+    public String getName() {
+        return "sampling";
+    }
+
+    @Override
+    public List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (Dataset dataset : DatasetRegistry.getDatasets()) {
+            for (int inputSize : INPUT_SIZES) {
+                for (int count : new int[] {1, BATCH_SIZE}) {
+                    cases.add(new BenchmarkCase(getName(),
+                            "dataset=" + dataset.name.replace(' ', '_') + " inputSize=" + inputSize + " batch=" + count,
+                            () -> {
+                                DatasetSampler sampler = dataset.createSampler(inputSize, new SplittableRandom(42));
+                                double[] out = new double[count * inputSize];
+                                return () -> {
+                                    sampler.fill(out, count);
+                                    return Double.doubleToRawLongBits(out[0]);
+                                };
+                            }));
+                }
+            }
+        }
+        for (boolean outline : new boolean[] {false, true}) {
+            for (int resolution : MANDELBROT_RESOLUTIONS) {
+                cases.add(new BenchmarkCase(getName(),
+                        "dataset=Mandelbrot_" + (outline ? "outline" : "set") + " resolution=" + resolution,
+                        () -> {
+                            DatasetSampler sampler = new MandelbrotSampler(3, new SplittableRandom(42), outline, resolution);
+                            double[] out = new double[3];
+                            return () -> {
+                                sampler.fill(out);
+                                return Double.doubleToRawLongBits(out[0]);
+                            };
+                        }));
+            }
+        }
+        return cases;
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import utils.SelfOrganizingMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Single online training steps (best matching unit search and neighbourhood update).
+ */
+public class TrainBenchmark implements Benchmark {
+    private static final int[] DIMENSIONS = {1, 2, 3};
+    private static final int[] NEURONS = {100, 1000, 10000, 100000};
+    private static final int[] INPUT_SIZES = {3, 16, 64, 256};
+    private static final double PHI = 0.25;
+    private static final double ETA = 0.01;
+    private static final int SAMPLE_COUNT = 1024;   // Precomputed samples, so sampling is not measured
+
+    @Override
+    public String getName() {
+        return "train";
+    }
+
+    @Override
+    public List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (int dimensions : DIMENSIONS) {
+            for (int neurons : NEURONS) {
+                for (int inputSize : INPUT_SIZES) {
+                    cases.add(new BenchmarkCase(getName(),
+                            "dimensions=" + dimensions + " neurons=" + neurons + " inputSize=" + inputSize,
+                            () -> setup(dimensions, neurons, inputSize)));
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static BenchmarkCase.Operation setup(int dimensions, int neurons, int inputSize) {
+        SelfOrganizingMap som = new SelfOrganizingMap(inputSize, dimensions,
+                SelfOrganizingMap.getNeuronPerDimension(neurons, dimensions));
+        som.phi = PHI;
+        double[][] samples = createSamples(SAMPLE_COUNT, inputSize, 42);
+        int[] next = new int[1];
+        return () -> {
+            double[] sample = samples[next[0]++ & (SAMPLE_COUNT - 1)];
+            som.train(sample, ETA);
+            return 1;
+        };
+    }
+
+    /**
+     * Create uniform random samples in [-1, 1]
+     *
+     * @param count Number of samples
+     * @param inputSize Number of values per sample
+     * @param seed Seed of the random generator
+     * @return samples
+     */
+    static double[][] createSamples(int count, int inputSize, long seed) {
+        Random random = new Random(seed);
+        double[][] samples = new double[count][inputSize];
+        for (double[] sample : samples) {
+            for (int i=0; i<inputSize; i++) {
+                sample[i] = random.nextDouble() * 2 - 1;
+            }
+        }
+        return samples;
+    }
+}
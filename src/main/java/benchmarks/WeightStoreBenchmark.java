@@ -0,0 +1,68 @@
+package benchmarks;
+
+import utils.SelfOrganizingMap;
+import utils.WeightStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the weight store backends by best matching unit and training throughput.
+ *
+ * Running it alone prints the memory usage of each backend: WeightStoreBenchmark [inputSize] [numNeurons]
+ */
+public class WeightStoreBenchmark implements Benchmark {
+    private static final int[] NEURONS = {10000};
+    private static final int[] INPUT_SIZES = {16, 64, 128};
+    private static final int SAMPLE_COUNT = 1024;
+
+    public static void main(String[] args) {
+        int inputSize = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int numNeurons = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        System.out.println("inputSize=" + inputSize + " numNeurons=" + numNeurons);
+        System.out.println(String.format("%-18s %12s", "backend", "memory MiB"));
+        for (WeightStore.Type type : WeightStore.Type.values()) {
+            WeightStore store = type.create(numNeurons, inputSize);
+            System.out.println(String.format("%-18s %12.2f", type.name(), store.getMemoryBytes() / (1024. * 1024.)));
+        }
+        System.out.println("Throughput: BenchmarkRunner --filter=^store");
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (String operation : new String[] {"bmu", "train"}) {
+            for (WeightStore.Type type : WeightStore.Type.values()) {
+                for (int neurons : NEURONS) {
+                    for (int inputSize : INPUT_SIZES) {
+                        boolean train = operation.equals("train");
+                        cases.add(new BenchmarkCase(getName(),
+                                "operation=" + operation + " backend=" + type.name() + " neurons=" + neurons + " inputSize=" + inputSize,
+                                () -> setup(type, neurons, inputSize, train)));
+                    }
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static BenchmarkCase.Operation setup(WeightStore.Type type, int neurons, int inputSize, boolean train) {
+        SelfOrganizingMap som = new SelfOrganizingMap(inputSize, 1, neurons, type);
+        som.phi = 0.5;
+        double[][] samples = TrainBenchmark.createSamples(SAMPLE_COUNT, inputSize, 42);
+        int[] next = new int[1];
+        if (train) {
+            return () -> {
+                som.train(samples[next[0]++ & (SAMPLE_COUNT - 1)], 0.01);
+                return 1;
+            };
+        }
+        return () -> som.getClosestNeuronIndex(samples[next[0]++ & (SAMPLE_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,50 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Base class for samplers which generate one sample after another.
+ */
+public abstract class AbstractSampler implements DatasetSampler {
+
+    protected final int inputSize;              // Number of values of each sample
+    protected final SplittableRandom random;    // Random generator of this sampler
+
+    protected AbstractSampler(int inputSize, SplittableRandom random) {
+        this.inputSize = inputSize;
+        this.random = random;
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public void fill(double[] out, int count) {
+        for (int i=0; i<count; i++) {
+            sample(out, i * inputSize);
+        }
+    }
+
+    /**
+     * Generate one sample
+     *
+     * @param out Output array
+     * @param offset Index of the first value of the sample
+     */
+    protected abstract void sample(double[] out, int offset);
+
+    /**
+     * Set the values of a sample, which are not used by the dataset, to 0
+     *
+     * @param out Output array
+     * @param offset Index of the first value of the sample
+     * @param from Number of used values
+     */
+    protected void clear(double[] out, int offset, int from) {
+        for (int i=from; i<inputSize; i++) {
+            out[offset + i] = 0;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples concentrated around one to three areas in the first three dimensions.
+ */
+public class AreaDistributionSampler extends AbstractSampler {
+
+    private final int areas;    // Number of areas (1 to 3)
+
+    public AreaDistributionSampler(int inputSize, SplittableRandom random, int areas) {
+        super(inputSize, random);
+        this.areas = areas;
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        int index = (int)(random.nextDouble() * areas);
+
+        switch (index) {
+            case 0:
+                setDistributionPoint(out, offset, 0, 0, 0);
+                break;
+            case 1:
+                setDistributionPoint(out, offset, 0.5, random.nextDouble() * 0.1 + 0.1, random.nextDouble() * 0.2 + 0.2);
+                break;
+
+            default:
+                double f = random.nextDouble();
+                double sX = Math.sin(f) * 0.3;
+                double sY = Math.cos(f) * 0.5;
+                setDistributionPoint(out, offset, -0.5 + sX, 1. - sY, -0.8);
+        }
+    }
+
+    /**
+     * Set a sample to a random point around a center, inside the [-1, 1] cube
+     *
+     * @param out Output array
+     * @param offset Index of the first value of the sample
+     * @param x Center x
+     * @param y Center y
+     * @param z Center z
+     */
+    private void setDistributionPoint(double[] out, int offset, double x, double y, double z) {
+        while (true) {
+            double dx = random.nextDouble() * 4. - 2.;
+            double dy = random.nextDouble() * 4. - 2.;
+            double dz = random.nextDouble() * 4. - 2.;
+
+            double dSq = dx * dx + dy * dy + dz * dz;
+            dSq = dSq * dSq;
+            dSq = dSq * dSq;
+            dSq = dSq * dSq;
+            dSq = dSq * dSq;
+            dSq = (dSq * dSq + 1.0) * 0.1;
+
+            dx *= dSq;
+            dy *= dSq;
+            dz *= dSq;
+
+            dx += x;
+            dy += y;
+            dz += z;
+
+            if (
+                    dx >= -1 && dx <= 1. &&
+                    dy >= -1 && dy <= 1. &&
+                    dz >= -1 && dz <= 1.) {
+                out[offset] = dx;
+                out[offset + 1] = dy;
+                out[offset + 2] = dz;
+                clear(out, offset, 3);
+                break;
+            }
+        }
+    }
+}
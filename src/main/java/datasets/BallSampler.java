@@ -0,0 +1,32 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniform samples inside the unit ball of the first three dimensions (the other values are 0).
+ * Rejection sampling in all dimensions would almost never accept a sample for bigger input sizes.
+ */
+public class BallSampler extends AbstractSampler {
+    private static final int USED_SIZE = 3;     // Number of dimensions of the ball
+
+    private final int usedSize;                 // Number of sampled values (up to USED_SIZE)
+
+    public BallSampler(int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+        usedSize = Math.min(USED_SIZE, inputSize);
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        double distanceSq;
+        do {
+            distanceSq = 0;
+            for (int i=0; i<usedSize; i++) {
+                double value = random.nextDouble() * 2 - 1;
+                out[offset + i] = value;
+                distanceSq += value * value;
+            }
+        } while (distanceSq > 1);
+        clear(out, offset, usedSize);
+    }
+}
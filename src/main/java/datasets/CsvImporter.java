@@ -0,0 +1,415 @@
+package datasets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Converts numeric CSV or TSV files into the binary dataset format of MappedDataset.
+ *
+ * The input is read twice as a byte stream: the first pass finds the number of columns and the range of each
+ * column, the second pass writes every value normalized to [-1, 1]. Numbers are parsed directly from the bytes,
+ * so memory usage only depends on the number of columns, not on the file size.
+ *
+ * Usage: CsvImporter input.csv [output.somd] [--float64]
+ */
+public class CsvImporter {
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final long PROGRESS_BYTES = 1 << 22;     // Bytes between two progress calls
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Path input;                   // CSV or TSV file
+    private final Path output;                  // Binary dataset file
+    public MappedDataset.ValueType valueType = MappedDataset.ValueType.FLOAT32;
+    private DoubleConsumer progress = fraction -> {};
+
+    private byte delimiter;                     // ',', ';' or '\t'
+    private boolean skipHeader;                 // First line contains column names
+    private int columns;                        // Number of columns
+    private long rows;                          // Number of data rows
+    private double[] min;                       // Minimum of each column
+    private double[] max;                       // Maximum of each column
+
+    public CsvImporter(Path input, Path output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: CsvImporter input.csv [output.somd] [--float64]");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        Path output = args.length > 1 && !args[1].startsWith("--") ? Paths.get(args[1]) : getDefaultOutput(input);
+        CsvImporter importer = new CsvImporter(input, output);
+        if (Arrays.asList(args).contains("--float64")) {
+            importer.valueType = MappedDataset.ValueType.FLOAT64;
+        }
+
+        int[] lastPercent = {-1};
+        importer.setProgressListener(fraction -> {
+            int percent = (int) (fraction * 100);
+            if (percent / 10 != lastPercent[0] / 10) {
+                System.out.println("Importing " + input.getFileName() + ": " + percent + "%");
+            }
+            lastPercent[0] = percent;
+        });
+        importer.run();
+        System.out.println("Wrote " + importer.rows + " vectors with " + importer.columns + " values to " + output);
+    }
+
+    /**
+     * Get the binary file next to a CSV file
+     *
+     * @param input CSV or TSV file
+     * @return the same path with the extension .somd
+     */
+    public static Path getDefaultOutput(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return input.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".somd");
+    }
+
+    /**
+     * Convert a CSV file, unless its binary file is already up to date
+     *
+     * @param input CSV or TSV file
+     * @param progress Receives the progress in the range [0.0 ; 1.0]
+     * @return the binary file
+     * @throws IOException if a file can not be read or written, or the input is not numeric
+     */
+    public static Path importIfNeeded(Path input, DoubleConsumer progress) throws IOException {
+        Path output = getDefaultOutput(input);
+        if (!Files.exists(output) || Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) < 0) {
+            CsvImporter importer = new CsvImporter(input, output);
+            importer.setProgressListener(progress);
+            importer.run();
+        }
+        return output;
+    }
+
+    /**
+     * Set the listener for the progress of run()
+     *
+     * @param progress Receives the progress in the range [0.0 ; 1.0]
+     */
+    public void setProgressListener(DoubleConsumer progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Convert the input file
+     *
+     * @throws IOException if a file can not be read or written, or the input is not numeric
+     */
+    public void run() throws IOException {
+        long size = Files.size(input);
+        detectFormat();
+        scan(size);
+
+        // an interrupted import must not leave a file which looks up to date
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(MappedDataset.createHeader(valueType, columns, rows));
+                write(channel, size);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        progress.accept(1.0);
+    }
+
+    /**
+     * Find the delimiter and whether there is a header line, from the first line
+     */
+    private void detectFormat() throws IOException {
+        byte[] line = new byte[READ_BUFFER_BYTES];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(input)) {
+            int b;
+            while (length < line.length && (b = in.read()) >= 0 && b != '\n') {
+                line[length++] = (byte) b;
+            }
+        }
+
+        delimiter = ',';
+        int commas = 0, semicolons = 0, tabs = 0;
+        for (int i=0; i<length; i++) {
+            commas += line[i] == ',' ? 1 : 0;
+            semicolons += line[i] == ';' ? 1 : 0;
+            tabs += line[i] == '\t' ? 1 : 0;
+        }
+        if (tabs > commas && tabs >= semicolons) {
+            delimiter = '\t';
+        }
+        else if (semicolons > commas) {
+            delimiter = ';';
+        }
+
+        skipHeader = false;
+        for (int i=0; i<length; i++) {
+            byte c = line[i];
+            if (c != delimiter && !isNumberByte(c) && c != ' ' && c != '"' && c != '\r') {
+                skipHeader = true;
+                break;
+            }
+        }
+    }
+
+    private static boolean isNumberByte(byte c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+    }
+
+    /**
+     * First pass: count rows and columns and find the range of each column
+     */
+    private void scan(long size) throws IOException {
+        columns = -1;
+        rows = 0;
+        min = new double[0];
+        max = new double[0];
+        parse(size, 0.0, (row, values, count) -> {
+            if (columns < 0) {
+                columns = count;
+                min = new double[count];
+                max = new double[count];
+                Arrays.fill(min, Double.POSITIVE_INFINITY);
+                Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            }
+            for (int i=0; i<count; i++) {
+                min[i] = Math.min(min[i], values[i]);
+                max[i] = Math.max(max[i], values[i]);
+            }
+            rows++;
+        });
+        if (columns <= 0) {
+            throw new IOException(input + ": no numeric rows found");
+        }
+    }
+
+    /**
+     * Second pass: write the normalized values
+     */
+    private void write(FileChannel channel, long size) throws IOException {
+        int rowBytes = columns * valueType.bytes;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_BYTES, rowBytes)).order(MappedDataset.BYTE_ORDER);
+        double[] scale = new double[columns];
+        for (int i=0; i<columns; i++) {
+            scale[i] = max[i] > min[i] ? 2. / (max[i] - min[i]) : 0;
+        }
+
+        parse(size, 0.5, (row, values, count) -> {
+            if (buffer.remaining() < rowBytes) {
+                flush(channel, buffer);
+            }
+            for (int i=0; i<count; i++) {
+                double value = scale[i] == 0 ? 0 : (values[i] - min[i]) * scale[i] - 1;
+                if (valueType == MappedDataset.ValueType.FLOAT32) {
+                    buffer.putFloat((float) value);
+                }
+                else {
+                    buffer.putDouble(value);
+                }
+            }
+        });
+        flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Receives the parsed rows
+     */
+    private interface RowHandler {
+        void row(long row, double[] values, int count) throws IOException;
+    }
+
+    /**
+     * Parse all data rows of the input
+     *
+     * @param size Size of the input in bytes
+     * @param progressOffset Progress at the start of this pass (each pass is one half)
+     * @param handler Receives the rows
+     */
+    private void parse(long size, double progressOffset, RowHandler handler) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_BYTES];
+        double[] values = new double[Math.max(columns, 16)];
+        int count = 0;                  // values in the current row
+        long line = 1;                  // line number for error messages
+        long bytesRead = 0;
+        long nextProgress = PROGRESS_BYTES;
+        boolean header = skipHeader;    // still inside the header line
+
+        // state of the current number
+        long mantissa = 0;
+        int digits = 0;                 // significant digits in the mantissa
+        int exponent = 0;               // decimal exponent of the mantissa
+        int exponentValue = 0;
+        boolean negative = false;
+        boolean negativeExponent = false;
+        boolean fraction = false;
+        boolean inExponent = false;
+        boolean hasValue = false;       // any digit seen in this field
+        boolean invalid = false;        // unexpected byte in this field
+
+        try (InputStream in = Files.newInputStream(input)) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                for (int i=0; i<n; i++) {
+                    byte c = buffer[i];
+                    if (header) {
+                        if (c == '\n') {
+                            header = false;
+                            line++;
+                        }
+                        continue;
+                    }
+
+                    if (c == delimiter || c == '\n') {
+                        // end of field
+                        if (hasValue || invalid) {
+                            if (invalid) {
+                                throw new IOException(input + ":" + line + ": not a number in column " + (count + 1));
+                            }
+                            if (count == values.length) {
+                                values = Arrays.copyOf(values, count * 2);
+                            }
+                            values[count++] = toDouble(mantissa, exponent + (negativeExponent ? -exponentValue : exponentValue), negative);
+                        }
+                        else if (c == delimiter) {
+                            throw new IOException(input + ":" + line + ": empty field in column " + (count + 1));
+                        }
+                        mantissa = 0;
+                        digits = 0;
+                        exponent = 0;
+                        exponentValue = 0;
+                        negative = false;
+                        negativeExponent = false;
+                        fraction = false;
+                        inExponent = false;
+                        hasValue = false;
+                        invalid = false;
+
+                        if (c == '\n') {
+                            if (count > 0) {
+                                if (columns >= 0 && count != columns) {
+                                    throw new IOException(input + ":" + line + ": expected " + columns + " values, found " + count);
+                                }
+                                handler.row(line, values, count);
+                            }
+                            count = 0;
+                            line++;
+                        }
+                    }
+                    else if (c >= '0' && c <= '9') {
+                        if (inExponent) {
+                            exponentValue = Math.min(exponentValue * 10 + (c - '0'), 1000);
+                        }
+                        else if (digits < 18) {
+                            if (mantissa != 0 || c != '0') {
+                                digits++;
+                            }
+                            mantissa = mantissa * 10 + (c - '0');
+                            if (fraction) {
+                                exponent--;
+                            }
+                        }
+                        else if (!fraction) {
+                            // digits beyond the precision of a long
+                            exponent++;
+                        }
+                        hasValue = true;
+                    }
+                    else if (c == '.' && !fraction && !inExponent) {
+                        fraction = true;
+                    }
+                    else if (c == '-' || c == '+') {
+                        if (inExponent) {
+                            negativeExponent = c == '-';
+                        }
+                        else if (!hasValue) {
+                            negative = c == '-';
+                        }
+                        else {
+                            invalid = true;
+                        }
+                    }
+                    else if ((c == 'e' || c == 'E') && hasValue && !inExponent) {
+                        inExponent = true;
+                    }
+                    else if (c != ' ' && c != '\r' && c != '"') {
+                        invalid = true;
+                    }
+                }
+
+                bytesRead += n;
+                if (bytesRead >= nextProgress) {
+                    progress.accept(progressOffset + 0.5 * bytesRead / Math.max(1, size));
+                    nextProgress += PROGRESS_BYTES;
+                }
+            }
+        }
+
+        // last line without a line end
+        if (hasValue || invalid || count > 0) {
+            if (invalid) {
+                throw new IOException(input + ":" + line + ": not a number in column " + (count + 1));
+            }
+            if (hasValue) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = toDouble(mantissa, exponent + (negativeExponent ? -exponentValue : exponentValue), negative);
+            }
+            if (columns >= 0 && count != columns) {
+                throw new IOException(input + ":" + line + ": expected " + columns + " values, found " + count);
+            }
+            handler.row(line, values, count);
+        }
+    }
+
+    /**
+     * Get the value of a parsed number
+     *
+     * @param mantissa Significant digits
+     * @param exponent Decimal exponent
+     * @param negative Sign
+     * @return mantissa * 10^exponent
+     */
+    private static double toDouble(long mantissa, int exponent, boolean negative) {
+        double value = mantissa;
+        if (exponent > 0) {
+            value *= exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+        }
+        else if (exponent < 0) {
+            value /= -exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[-exponent] : Math.pow(10, -exponent);
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,46 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * A named dataset of the registry.
+ */
+public class Dataset {
+
+    public final String name;                       // Display name
+    public final DatasetSampler.Factory factory;    // Creates the samplers of this dataset
+    public final int dimension;                     // Values per stored vector (0 for generated data of any size)
+
+    public Dataset(String name, DatasetSampler.Factory factory) {
+        this(name, 0, factory);
+    }
+
+    /**
+     * Create a dataset of stored vectors, which should be trained with their own size
+     *
+     * @param name Display name
+     * @param dimension Values per stored vector (0 for generated data of any size)
+     * @param factory Creates the samplers of this dataset
+     */
+    public Dataset(String name, int dimension, DatasetSampler.Factory factory) {
+        this.name = name;
+        this.dimension = dimension;
+        this.factory = factory;
+    }
+
+    /**
+     * Create a sampler of this dataset
+     *
+     * @param inputSize Number of values of each sample
+     * @param random Random generator, which is only used by the new sampler
+     * @return new sampler
+     */
+    public DatasetSampler createSampler(int inputSize, SplittableRandom random) {
+        return factory.create(inputSize, random);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
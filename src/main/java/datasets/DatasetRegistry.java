@@ -0,0 +1,102 @@
+package datasets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * All datasets available for training, in display order.
+ */
+public class DatasetRegistry {
+
+    private static final List<Dataset> DATASETS = new CopyOnWriteArrayList<>();
+
+    static {
+        register("Full Space", FullSpaceSampler::new);
+        register("Ball (volume)", BallSampler::new);
+        register("Sphere (surface)", SphereSampler::new);
+        register("Peanut volume", PeanutSampler::new);
+        register("1 area distribution", (inputSize, random) -> new AreaDistributionSampler(inputSize, random, 1));
+        register("2 area distribution", (inputSize, random) -> new AreaDistributionSampler(inputSize, random, 2));
+        register("3 area distribution", (inputSize, random) -> new AreaDistributionSampler(inputSize, random, 3));
+        register("Plane", PlaneSampler::new);
+        register("Mandelbrot set", (inputSize, random) -> new MandelbrotSampler(inputSize, random, false));
+        register("Mandelbrot outline", (inputSize, random) -> new MandelbrotSampler(inputSize, random, true));
+    }
+
+    /**
+     * Add a dataset at the end of the list
+     *
+     * @param name Display name
+     * @param factory Creates the samplers of the dataset
+     * @return the new dataset
+     */
+    public static Dataset register(String name, DatasetSampler.Factory factory) {
+        Dataset dataset = new Dataset(name, factory);
+        DATASETS.add(dataset);
+        return dataset;
+    }
+
+    /**
+     * Add a dataset at the end of the list
+     *
+     * @param dataset The dataset
+     */
+    public static void register(Dataset dataset) {
+        DATASETS.add(dataset);
+    }
+
+    /**
+     * Get all datasets
+     *
+     * @return unmodifiable list of the datasets
+     */
+    public static List<Dataset> getDatasets() {
+        return Collections.unmodifiableList(DATASETS);
+    }
+
+    /**
+     * Get the names of all datasets
+     *
+     * @return names in display order
+     */
+    public static List<String> getNames() {
+        List<String> names = new ArrayList<>();
+        for (Dataset dataset : DATASETS) {
+            names.add(dataset.name);
+        }
+        return names;
+    }
+
+    /**
+     * Get a dataset by its position
+     *
+     * @param index Index in the list
+     * @return the dataset
+     */
+    public static Dataset get(int index) {
+        return DATASETS.get(index);
+    }
+
+    /**
+     * Find a dataset by index or name (ignoring the case)
+     *
+     * @param value Index or name
+     * @return the dataset or null, if there is none
+     */
+    public static Dataset find(String value) {
+        for (Dataset dataset : DATASETS) {
+            if (dataset.name.equalsIgnoreCase(value)) {
+                return dataset;
+            }
+        }
+        try {
+            int index = Integer.parseInt(value);
+            return index >= 0 && index < DATASETS.size() ? DATASETS.get(index) : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
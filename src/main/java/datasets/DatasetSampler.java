@@ -0,0 +1,50 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Source of training samples of one dataset.
+ *
+ * A sampler is used by one thread only. Parallel workers each create their own sampler with their own random stream.
+ */
+public interface DatasetSampler {
+
+    /**
+     * Creates samplers of one dataset
+     */
+    interface Factory {
+
+        /**
+         * Create a sampler
+         *
+         * @param inputSize Number of values of each sample
+         * @param random Random generator, which is only used by the new sampler
+         * @return new sampler
+         */
+        DatasetSampler create(int inputSize, SplittableRandom random);
+    }
+
+    /**
+     * Get the number of values of each sample
+     *
+     * @return input size
+     */
+    int getInputSize();
+
+    /**
+     * Generate multiple samples, stored one after another
+     *
+     * @param out Output array with at least count * getInputSize() values
+     * @param count Number of samples
+     */
+    void fill(double[] out, int count);
+
+    /**
+     * Generate one sample
+     *
+     * @param out Output array with getInputSize() values
+     */
+    default void fill(double[] out) {
+        fill(out, 1);
+    }
+}
@@ -0,0 +1,28 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniform samples in the whole input space [-1, 1]^n.
+ */
+public class FullSpaceSampler extends AbstractSampler {
+
+    public FullSpaceSampler(int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+    }
+
+    @Override
+    public void fill(double[] out, int count) {
+        int size = count * inputSize;
+        for (int i=0; i<size; i++) {
+            out[i] = random.nextDouble() * 2 - 1;
+        }
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        for (int i=0; i<inputSize; i++) {
+            out[offset + i] = random.nextDouble() * 2 - 1;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package datasets;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed grid cells inside the Mandelbrot set (or its outline).
+ *
+ * The sampled area is split into resolution x resolution cells. Every cell whose center passes the test
+ * is stored once, so a sample is one random cell plus a random position inside it. Pools are immutable
+ * and shared by all samplers with the same parameters.
+ */
+public class MandelbrotPool {
+    public static final double MIN_CR = -1.5;           // Sampled area on the real axis
+    public static final double MAX_CR = 0.5;
+    public static final double MIN_CI = -1.;            // Sampled area on the imaginary axis
+    public static final double MAX_CI = 1.;
+
+    private static final Map<String, MandelbrotPool> CACHE = new ConcurrentHashMap<>();
+
+    public final boolean outline;       // Cells of the outline instead of the set
+    public final int resolution;        // Number of cells per axis
+    private final int[] cells;          // Accepted cells (y * resolution + x)
+
+    private MandelbrotPool(boolean outline, int resolution) {
+        this.outline = outline;
+        this.resolution = resolution;
+
+        int[] accepted = new int[1024];
+        int count = 0;
+        for (int y=0; y<resolution; y++) {
+            double ci = MIN_CI + (y + 0.5) / resolution * (MAX_CI - MIN_CI);
+            for (int x=0; x<resolution; x++) {
+                double cr = MIN_CR + (x + 0.5) / resolution * (MAX_CR - MIN_CR);
+                boolean inside = outline
+                        ? MandelbrotSampler.checkInMandelbrotOutline(ci, cr, 0)
+                        : MandelbrotSampler.checkInMandelbrotSet(ci, cr, 0);
+                if (inside) {
+                    if (count == accepted.length) {
+                        accepted = Arrays.copyOf(accepted, count * 2);
+                    }
+                    accepted[count++] = y * resolution + x;
+                }
+            }
+        }
+        this.cells = Arrays.copyOf(accepted, count);
+    }
+
+    /**
+     * Get the pool for the parameters, which is created on the first call
+     *
+     * @param outline Cells of the outline instead of the set
+     * @param resolution Number of cells per axis
+     * @return shared pool
+     */
+    public static MandelbrotPool get(boolean outline, int resolution) {
+        return CACHE.computeIfAbsent(outline + ":" + resolution, key -> new MandelbrotPool(outline, resolution));
+    }
+
+    /**
+     * Get the number of accepted cells
+     *
+     * @return size of the pool
+     */
+    public int size() {
+        return cells.length;
+    }
+
+    /**
+     * Draw a uniformly distributed point of the pool
+     *
+     * @param random Random generator
+     * @param out Output array for the point (real part, imaginary part)
+     * @param offset Index of the real part in the output array
+     */
+    public void sample(SplittableRandom random, double[] out, int offset) {
+        int cell = cells[random.nextInt(cells.length)];
+        double x = (cell % resolution + random.nextDouble()) / resolution;
+        double y = (cell / resolution + random.nextDouble()) / resolution;
+        out[offset] = MIN_CR + x * (MAX_CR - MIN_CR);
+        out[offset + 1] = MIN_CI + y * (MAX_CI - MIN_CI);
+    }
+}
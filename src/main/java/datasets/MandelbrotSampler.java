@@ -0,0 +1,87 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniform samples inside the Mandelbrot set or close to its outline.
+ *
+ * By default the samples are drawn from a precomputed MandelbrotPool, which is exact up to the size
+ * of a pool cell. A resolution of 0 uses rejection sampling of the exact shape instead.
+ */
+public class MandelbrotSampler extends AbstractSampler {
+    public static final int DEFAULT_RESOLUTION = Integer.getInteger("som.mandelbrotResolution", 1024);
+
+    private final boolean outline;          // Sample the outline instead of the set
+    private final MandelbrotPool pool;      // Precomputed cells (null for rejection sampling)
+
+    public MandelbrotSampler(int inputSize, SplittableRandom random, boolean outline) {
+        this(inputSize, random, outline, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Create a Mandelbrot sampler
+     *
+     * @param inputSize Number of values of each sample
+     * @param random Random generator of this sampler
+     * @param outline Sample the outline instead of the set
+     * @param resolution Number of pool cells per axis (0 for rejection sampling)
+     */
+    public MandelbrotSampler(int inputSize, SplittableRandom random, boolean outline, int resolution) {
+        super(inputSize, random);
+        this.outline = outline;
+        this.pool = resolution > 0 ? MandelbrotPool.get(outline, resolution) : null;
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        if (pool != null) {
+            pool.sample(random, out, offset);
+            out[offset] += 0.5;
+            clear(out, offset, 2);
+            return;
+        }
+
+        while (true) {
+            double ci = random.nextDouble() * 2 - 1.;
+            double cr = random.nextDouble() * 2 - 1.5;
+            if (outline ? checkInMandelbrotOutline(ci, cr, 0) : checkInMandelbrotSet(ci, cr, 0)) {
+                out[offset] = cr + 0.5;
+                out[offset + 1] = ci;
+                clear(out, offset, 2);
+                break;
+            }
+        }
+    }
+
+    // Mandelbrot set implementation based on
+    // https://www.hameister.org/projects_fractal.html
+    public static boolean checkInMandelbrotSet(double ci, double c, double z0) {
+        double zi = 0;
+        double z = z0;
+        for (int i = 0; i < 50; i++) {
+            double ziT = 2 * (z * zi);
+            double zT = z * z - (zi * zi);
+            z = zT + c;
+            zi = ziT + ci;
+            if (z * z + zi * zi >= 4.0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean checkInMandelbrotOutline(double ci, double c, double z0) {
+        double zi = 0;
+        double z = z0;
+        for (int i = 0; i < 50; i++) {
+            double ziT = 2 * (z * zi);
+            double zT = z * z - (zi * zi);
+            z = zT + c;
+            zi = ziT + ci;
+            if (z * z + zi * zi >= 4.0) {
+                return i > 10;
+            }
+        }
+        return false;
+    }
+}
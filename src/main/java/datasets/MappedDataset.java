@@ -0,0 +1,188 @@
+package datasets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a binary dataset file, which is memory-mapped in segments.
+ *
+ * File format (little endian):
+ *
+ *   int    magic       0x534F4D44 ("SOMD")
+ *   int    version     1
+ *   int    value type  4 = float32, 8 = float64 (bytes per value)
+ *   int    dimension   number of values per vector
+ *   long   count       number of vectors
+ *   long   reserved    0
+ *   ...    vectors     count * dimension values
+ *
+ * The file is mapped in segments of whole vectors, so files larger than 2 GB work and a vector never
+ * crosses a segment border. Reading needs no locks, a dataset can be shared by any number of samplers.
+ */
+public class MappedDataset {
+    public static final int MAGIC = 0x534F4D44;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final long SEGMENT_BYTES = Long.getLong("som.mappedSegmentBytes", Integer.MAX_VALUE);
+
+    /**
+     * Type of the stored values
+     */
+    public enum ValueType {
+        FLOAT32(4),
+        FLOAT64(8);
+
+        public final int bytes;     // Bytes per value, also the code in the header
+
+        ValueType(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public static ValueType fromCode(int code) {
+            for (ValueType type : values()) {
+                if (type.bytes == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown value type: " + code);
+        }
+    }
+
+    /**
+     * Order in which the samplers read the vectors
+     */
+    public enum AccessMode {
+        SEQUENTIAL,     // File order from a random start vector, starting again at the end
+        SHUFFLED,       // Every vector once per epoch in a new random order
+        RANDOM          // Random vectors with replacement
+    }
+
+    public final Path path;                 // Path of the file
+    public final ValueType valueType;       // Type of the stored values
+    public final int dimension;             // Number of values per vector
+    public final long count;                // Number of vectors
+    private final int vectorBytes;          // Bytes per vector
+    private final long vectorsPerSegment;   // Number of vectors in each mapped segment
+    private final ByteBuffer[] segments;    // Mapped segments
+
+    private MappedDataset(Path path, ValueType valueType, int dimension, long count, ByteBuffer[] segments, long vectorsPerSegment) {
+        this.path = path;
+        this.valueType = valueType;
+        this.dimension = dimension;
+        this.count = count;
+        this.vectorBytes = dimension * valueType.bytes;
+        this.segments = segments;
+        this.vectorsPerSegment = vectorsPerSegment;
+    }
+
+    /**
+     * Open and map a dataset file
+     *
+     * @param path Path of the file
+     * @return the mapped dataset
+     * @throws IOException if the file can not be read or has an invalid header
+     */
+    public static MappedDataset open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(path + ": file too short for a dataset header");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+            while (header.hasRemaining()) {
+                channel.read(header, header.position());
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + ": not a dataset file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported dataset version " + version);
+            }
+            ValueType valueType = ValueType.fromCode(header.getInt());
+            int dimension = header.getInt();
+            long count = header.getLong();
+            if (dimension <= 0 || dimension > Integer.MAX_VALUE / valueType.bytes) {
+                throw new IOException(path + ": invalid dimension " + dimension);
+            }
+            // divide instead of multiplying, so a huge count can not overflow
+            long vectorBytes = (long) dimension * valueType.bytes;
+            if (count < 0 || count > (channel.size() - HEADER_BYTES) / vectorBytes) {
+                throw new IOException(path + ": header does not match the file size");
+            }
+
+            long vectorsPerSegment = Math.max(1, SEGMENT_BYTES / vectorBytes);
+            int segmentCount = (int) ((count + vectorsPerSegment - 1) / vectorsPerSegment);
+            ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            for (int s=0; s<segmentCount; s++) {
+                long first = s * vectorsPerSegment;
+                long vectors = Math.min(vectorsPerSegment, count - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * vectorBytes, vectors * vectorBytes)
+                        .order(BYTE_ORDER);
+            }
+            return new MappedDataset(path, valueType, dimension, count, segments, vectorsPerSegment);
+        }
+    }
+
+    /**
+     * Create the header of a dataset file
+     *
+     * @param valueType Type of the stored values
+     * @param dimension Number of values per vector
+     * @param count Number of vectors
+     * @return header buffer, ready to be written
+     */
+    public static ByteBuffer createHeader(ValueType valueType, int dimension, long count) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(valueType.bytes);
+        header.putInt(dimension);
+        header.putLong(count);
+        header.putLong(0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Copy one vector into a sample. Missing values are set to 0, surplus ones are ignored.
+     *
+     * @param index Index of the vector
+     * @param out Output array
+     * @param offset Index of the first value of the sample
+     * @param size Number of values of the sample
+     */
+    public void get(long index, double[] out, int offset, int size) {
+        ByteBuffer segment = segments[(int) (index / vectorsPerSegment)];
+        int position = (int) (index % vectorsPerSegment) * vectorBytes;
+        int n = Math.min(size, dimension);
+        if (valueType == ValueType.FLOAT32) {
+            for (int i=0; i<n; i++) {
+                out[offset + i] = segment.getFloat(position + i * 4);
+            }
+        }
+        else {
+            for (int i=0; i<n; i++) {
+                out[offset + i] = segment.getDouble(position + i * 8);
+            }
+        }
+        for (int i=n; i<size; i++) {
+            out[offset + i] = 0;
+        }
+    }
+
+    /**
+     * Create a dataset for the registry or the trainers
+     *
+     * @param mode Order in which the samplers read the vectors
+     * @return dataset named after the file
+     */
+    public Dataset toDataset(AccessMode mode) {
+        return new Dataset(path.getFileName().toString(), dimension, (inputSize, random) -> new MappedSampler(this, mode, inputSize, random));
+    }
+}
@@ -0,0 +1,79 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples the vectors of a memory-mapped dataset file.
+ *
+ * The shuffled order is an affine permutation (start + i * step) mod count with a new random step,
+ * coprime to count, for every epoch. It visits every vector once and needs no index array.
+ * The sequential order starts at a random vector, so the samplers of several threads read different
+ * parts of the file instead of all feeding the head of the file at the same time.
+ */
+public class MappedSampler extends AbstractSampler {
+
+    private final MappedDataset dataset;            // Mapped file
+    private final MappedDataset.AccessMode mode;    // Order of the vectors
+    private long position;                          // Current vector (sequential and shuffled)
+    private long remaining = 0;                     // Vectors left in this epoch (shuffled)
+    private long step = 1;                          // Step of the permutation (shuffled)
+
+    public MappedSampler(MappedDataset dataset, MappedDataset.AccessMode mode, int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+        if (dataset.count == 0) {
+            throw new IllegalArgumentException(dataset.path + " contains no vectors");
+        }
+        this.dataset = dataset;
+        this.mode = mode;
+        this.position = random.nextLong(dataset.count);
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        dataset.get(nextIndex(), out, offset, inputSize);
+    }
+
+    /**
+     * Get the index of the next vector
+     *
+     * @return vector index
+     */
+    private long nextIndex() {
+        long count = dataset.count;
+        switch (mode) {
+            case RANDOM:
+                return random.nextLong(count);
+
+            case SHUFFLED:
+                if (remaining == 0) {
+                    step = count == 1 ? 1 : random.nextLong(1, count);
+                    while (gcd(step, count) != 1) {
+                        step = random.nextLong(1, count);
+                    }
+                    position = random.nextLong(count);
+                    remaining = count;
+                }
+                remaining--;
+                long index = position;
+                position += step;
+                if (position >= count) {
+                    position -= count;
+                }
+                return index;
+
+            default:
+                long next = position;
+                position = position + 1 < count ? position + 1 : 0;
+                return next;
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
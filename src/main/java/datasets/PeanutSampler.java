@@ -0,0 +1,36 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniform samples inside two overlapping spheres in the first three dimensions (the other values are 0).
+ * Rejection sampling in all dimensions would almost never accept a sample for bigger input sizes.
+ */
+public class PeanutSampler extends AbstractSampler {
+    private static final double SPHERES_RADIUS_SQ = 0.6 * 0.6;
+    private static final int USED_SIZE = 3;     // Number of dimensions of the spheres
+
+    private final int usedSize;                 // Number of sampled values (up to USED_SIZE)
+
+    public PeanutSampler(int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+        usedSize = Math.min(USED_SIZE, inputSize);
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        double distanceSq;
+        double distanceSq2;
+        do {
+            distanceSq = 0;
+            distanceSq2 = 0;
+            for (int i=0; i<usedSize; i++) {
+                double value = random.nextDouble() * 2 - 1;
+                out[offset + i] = value;
+                distanceSq += (value + 0.25) * (value + 0.25);
+                distanceSq2 += (value - 0.25) * (value - 0.25);
+            }
+        } while (distanceSq > SPHERES_RADIUS_SQ && distanceSq2 > SPHERES_RADIUS_SQ);
+        clear(out, offset, usedSize);
+    }
+}
@@ -0,0 +1,20 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniform samples on the plane spanned by the first two dimensions.
+ */
+public class PlaneSampler extends AbstractSampler {
+
+    public PlaneSampler(int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        for (int i=0; i<inputSize; i++) {
+            out[offset + i] = i < 2 ? random.nextDouble() * 2 - 1 : 0;
+        }
+    }
+}
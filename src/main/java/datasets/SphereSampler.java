@@ -0,0 +1,31 @@
+package datasets;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples on the surface of the unit sphere.
+ */
+public class SphereSampler extends AbstractSampler {
+
+    public SphereSampler(int inputSize, SplittableRandom random) {
+        super(inputSize, random);
+    }
+
+    @Override
+    protected void sample(double[] out, int offset) {
+        double distanceSq;
+        do {
+            distanceSq = 0;
+            for (int i=0; i<inputSize; i++) {
+                double value = random.nextDouble() * 2 - 1;
+                out[offset + i] = value;
+                distanceSq += value * value;
+            }
+        } while (distanceSq > 1 && distanceSq <= 0.000001);
+
+        double distance = Math.sqrt(distanceSq);
+        for (int i=0; i<inputSize; i++) {
+            out[offset + i] /= distance;
+        }
+    }
+}
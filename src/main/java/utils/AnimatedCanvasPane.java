@@ -1,12 +1,41 @@
 package utils;
 
 import javafx.animation.AnimationTimer;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.util.Arrays;
 
 /**
- * Resizable canvas with animation loop
+ * Resizable canvas with animation loop.
+ *
+ * The view is only drawn again when one of its inputs changed. On every pulse the view declares its inputs
+ * with the depends() methods (e.g. the weight snapshot sequence, the camera, the data points and the canvas
+ * size) and they are compared with the inputs of the last drawn frame. Hidden views are not drawn at all and
+ * the frame rate can be capped, so the user interface does not take cores away from the training.
  */
 public abstract class AnimatedCanvasPane extends CanvasPane {
+    public static final double DEFAULT_MAX_FPS = Integer.getInteger("som.maxFps", 60); // Frame rate cap of new panes
+
     private AnimationTimer timer;
+    public volatile double maxFramesPerSecond = DEFAULT_MAX_FPS; // Frame rate cap (0 for none)
+    private boolean invalid = true;             // Draw the next frame, even if no input changed
+    private long lastFrameTime = 0;             // Pulse time of the last drawn frame
+
+    // inputs of the last drawn frame and of the current pulse
+    private long[] frameValues = new long[16];
+    private Object[] frameReferences = new Object[4];
+    private int frameValueCount = -1;
+    private int frameReferenceCount = -1;
+    private long[] values = new long[16];
+    private Object[] references = new Object[4];
+    private int valueCount = 0;
+    private int referenceCount = 0;
+
+    // statistics
+    private long drawnFrames = 0;
+    private long skippedFrames = 0;
 
     public AnimatedCanvasPane(double width, double height) {
         super(width, height);
@@ -19,16 +48,160 @@ public abstract class AnimatedCanvasPane extends CanvasPane {
             {
                 public void handle(long currentNanoTime)
                 {
-                    updateView();
+                    pulse(currentNanoTime);
                 }
             };
-            timer.start();
         }
+        timer.start();
     }
 
     public void stopAnimation() {
-        timer.stop();
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Draw the view, if it is showing, the frame rate cap allows it and an input changed
+     *
+     * @param now Time of the pulse in nanoseconds
+     */
+    private void pulse(long now) {
+        if (!isShowing()) {
+            return;
+        }
+        // a tenth of tolerance, so pulses with a little jitter are not skipped at a cap of the display rate
+        double maxFps = maxFramesPerSecond;
+        if (maxFps > 0 && now - lastFrameTime < (long) (0.9e9 / maxFps)) {
+            return;
+        }
+
+        valueCount = 0;
+        referenceCount = 0;
+        collectDependencies();
+        depends(getCanvas().getWidth());
+        depends(getCanvas().getHeight());
+        if (!invalid && !hasDependencyChanged()) {
+            skippedFrames++;
+            return;
+        }
+
+        // the inputs of this pulse become the inputs of the drawn frame
+        long[] swapValues = frameValues;
+        frameValues = values;
+        values = swapValues;
+        Object[] swapReferences = frameReferences;
+        frameReferences = references;
+        references = swapReferences;
+        frameValueCount = valueCount;
+        frameReferenceCount = referenceCount;
+        Arrays.fill(references, null);
+
+        invalid = false;
+        lastFrameTime = now;
+        drawnFrames++;
+        updateView();
+    }
+
+    /**
+     * Check if the pane can be seen: it is visible in a showing window, which is not minimized
+     *
+     * @return true, if the pane is showing
+     */
+    private boolean isShowing() {
+        Scene scene = getScene();
+        Window window = scene != null ? scene.getWindow() : null;
+        if (!isVisible() || window == null || !window.isShowing()) {
+            return false;
+        }
+        return !(window instanceof Stage && ((Stage) window).isIconified());
+    }
+
+    private boolean hasDependencyChanged() {
+        if (valueCount != frameValueCount || referenceCount != frameReferenceCount) {
+            return true;
+        }
+        for (int i=0; i<valueCount; i++) {
+            if (values[i] != frameValues[i]) {
+                return true;
+            }
+        }
+        for (int i=0; i<referenceCount; i++) {
+            if (references[i] != frameReferences[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Declare an input of the current frame
+     *
+     * @param value Value of the input
+     */
+    protected void depends(long value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+            frameValues = Arrays.copyOf(frameValues, valueCount * 2);
+        }
+        values[valueCount++] = value;
     }
 
+    /**
+     * Declare an input of the current frame
+     *
+     * @param value Value of the input
+     */
+    protected void depends(double value) {
+        depends(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Declare an input of the current frame
+     *
+     * @param value Value of the input
+     */
+    protected void depends(boolean value) {
+        depends(value ? 1L : 0L);
+    }
+
+    /**
+     * Declare an input of the current frame, which is compared by identity
+     *
+     * @param reference The input object (may be null)
+     */
+    protected void depends(Object reference) {
+        if (referenceCount == references.length) {
+            references = Arrays.copyOf(references, referenceCount * 2);
+            frameReferences = Arrays.copyOf(frameReferences, referenceCount * 2);
+        }
+        references[referenceCount++] = reference;
+    }
+
+    /**
+     * Draw the next frame, even if none of the inputs changed
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    public long getDrawnFrames() {
+        return drawnFrames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Called on every pulse of a showing pane before it might be drawn. Advance animations here and
+     * declare all inputs of the view with the depends() methods (the canvas size is declared afterwards).
+     * Call invalidate() if the inputs can not be tracked.
+     */
+    protected abstract void collectDependencies();
+
+    /**
+     * Draw the view
+     */
     public abstract void updateView();
 }
@@ -0,0 +1,397 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Batch training for a som running on a ForkJoinPool.
+ *
+ * Each epoch takes a block of samples and runs in three phases:
+ * the best matching units of all samples are searched in parallel, every range task sums the samples
+ * of the winners in its neuron range, and every range task updates its neurons with the neighbourhood
+ * weighted sums of all winners around them.
+ *
+ * The search does not need any buffers, so it always runs with the full parallelism. The sums are held
+ * once for the whole map (independent of the number of cores), and only the winners and neurons touched
+ * in an epoch are cleared and updated.
+ */
+public class BatchTrainer {
+    private final ForkJoinPool pool;            // Pool running the epoch tasks
+    private final int parallelism;              // Number of threads and tasks per phase
+    private SelfOrganizingMap som;              // Som to train
+    private BmuSearch.Type bmuSearchType;       // Search type of the current tasks
+    private volatile SearchTask[] searchTasks;  // Tasks searching the winners of a sample range
+    private RangeTask[] rangeTasks;             // Tasks summing and updating a neuron range
+    private int[] winners = new int[0];         // Winner of each sample of the epoch
+    private double[] samples;                   // Samples of the epoch
+    private int count;                          // Number of samples of the epoch
+    private double[] winnerSums;                // Sum of the samples won by each neuron
+    private int[] winnerCounts;                 // Number of samples won by each neuron
+    private double[] numerators;                // Neighbourhood weighted sum of the samples for each neuron
+    private double[] denominators;              // Sum of the influences for each neuron
+    private NeighbourhoodKernel sortedKernel;   // Kernel of sortedEntries
+    private int[] sortedEntries;                // Kernel entries sorted by their neuron index offset
+    private int[] sortedIndexOffsets;           // Neuron index offset of each sorted entry
+    public volatile TrainingMetrics metrics = null; // Receives the iterations and step latencies (or null)
+
+    /**
+     * Create a batch trainer
+     *
+     * @param som The som to train
+     * @param parallelism Number of parallel tasks (and threads)
+     */
+    public BatchTrainer(SelfOrganizingMap som, int parallelism) {
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+        setSom(som);
+    }
+
+    /**
+     * Create a batch trainer using all available processors
+     *
+     * @param som The som to train
+     */
+    public BatchTrainer(SelfOrganizingMap som) {
+        this(som, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SelfOrganizingMap getSom() {
+        return som;
+    }
+
+    /**
+     * Set the som to train. The buffers get reallocated.
+     *
+     * @param som The som to train
+     */
+    public void setSom(SelfOrganizingMap som) {
+        this.som = som;
+        this.bmuSearchType = som.getBmuSearchType();
+
+        winnerSums = new double[som.numNeurons * som.inputSize];
+        winnerCounts = new int[som.numNeurons];
+        numerators = new double[som.numNeurons * som.inputSize];
+        denominators = new double[som.numNeurons];
+
+        SearchTask[] searchTasks = new SearchTask[parallelism];
+        rangeTasks = new RangeTask[parallelism];
+        for (int i=0; i<parallelism; i++) {
+            searchTasks[i] = new SearchTask(som);
+            rangeTasks[i] = new RangeTask(
+                    (int)((long)som.numNeurons * i / parallelism),
+                    (int)((long)som.numNeurons * (i + 1) / parallelism));
+        }
+        this.searchTasks = searchTasks;
+    }
+
+    /**
+     * Train the som with one epoch of samples
+     *
+     * @param samples count samples, each one with the input size of the som, stored one after another
+     * @param count Number of samples
+     * @param eta Fraction of the way each neuron moves towards its batch result.
+     *            1.0 is the classic batch som, which replaces the weights.
+     */
+    public void trainEpoch(double[] samples, int count, double eta) {
+        if (som.getBmuSearchType() != bmuSearchType) {
+            setSom(som);
+        }
+        if (winners.length < count) {
+            winners = new int[count];
+        }
+        this.samples = samples;
+        this.count = count;
+
+        NeighbourhoodKernel kernel = som.getNeighbourhoodKernel();
+        if (kernel != sortedKernel) {
+            sortKernel(kernel);
+        }
+        TrainingMetrics metrics = this.metrics;
+        for (int i=0; i<parallelism; i++) {
+            SearchTask task = searchTasks[i];
+            task.reinitialize();
+            task.metrics = metrics;
+            task.kernel = kernel;
+            task.from = (int)((long)count * i / parallelism);
+            task.to = (int)((long)count * (i + 1) / parallelism);
+        }
+        invokeAll(searchTasks);
+
+        long updateStart = System.nanoTime();
+        for (RangeTask task : rangeTasks) {
+            task.reinitialize();
+            task.update = false;
+        }
+        invokeAll(rangeTasks);
+        for (RangeTask task : rangeTasks) {
+            task.reinitialize();
+            task.update = true;
+            task.kernel = kernel;
+            task.eta = eta;
+        }
+        invokeAll(rangeTasks);
+
+        for (SearchTask task : searchTasks) {
+            task.bmuSearch.weightsChanged();
+        }
+        som.getBmuSearch().weightsChanged();
+        this.samples = null;
+        if (metrics != null) {
+            // the update is shared by the whole epoch, so every step gets its part of it
+            if (count > 0) {
+                metrics.record(TrainingMetrics.Phase.UPDATE, (System.nanoTime() - updateStart) / count);
+            }
+            metrics.addIterations(count);
+        }
+    }
+
+    /**
+     * Sort the kernel entries by their neuron index offset, so every range task finds the entries
+     * reaching its range with a binary search
+     *
+     * @param kernel The kernel of the epoch
+     */
+    private void sortKernel(NeighbourhoodKernel kernel) {
+        long[] keys = new long[kernel.size];
+        for (int k=0; k<kernel.size; k++) {
+            keys[k] = ((long) kernel.indexOffsets[k] << 32) | k;
+        }
+        Arrays.sort(keys);
+        sortedEntries = new int[kernel.size];
+        sortedIndexOffsets = new int[kernel.size];
+        for (int k=0; k<kernel.size; k++) {
+            sortedEntries[k] = (int) keys[k];
+            sortedIndexOffsets[k] = (int) (keys[k] >> 32);
+        }
+        sortedKernel = kernel;
+    }
+
+    /**
+     * Find the first sorted kernel entry with an index offset of at least the given value
+     *
+     * @param indexOffset Smallest index offset
+     * @return index into the sorted entries (kernel size if there is none)
+     */
+    private int findSortedEntry(int indexOffset) {
+        int low = 0;
+        int high = sortedIndexOffsets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedIndexOffsets[middle] < indexOffset) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void invokeAll(ForkJoinTask<?>[] tasks) {
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Get the moving average of the quantization error over all tasks
+     *
+     * @return mean quantization error of the tasks (0.0 if nothing was measured yet)
+     */
+    public double getQuantizationError() {
+        double sum = 0;
+        int count = 0;
+        for (SearchTask task : searchTasks) {
+            if (task.bmuSearch.getErrorMeasurements() > 0) {
+                sum += task.bmuSearch.getQuantizationError();
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * Get the moving average of the topographic error over all tasks
+     *
+     * @return mean topographic error of the tasks (0.0 if nothing was measured yet)
+     */
+    public double getTopographicError() {
+        double sum = 0;
+        int count = 0;
+        for (SearchTask task : searchTasks) {
+            if (task.bmuSearch.getErrorMeasurements() > 0) {
+                sum += task.bmuSearch.getTopographicError();
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * Stop the threads of this trainer
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Task finding the best matching units of a range of samples
+     */
+    private class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BmuSearch bmuSearch;
+        private final double[] input;
+        private int from;
+        private int to;
+        private NeighbourhoodKernel kernel;
+        private TrainingMetrics metrics;
+        private long steps = 0;
+
+        SearchTask(SelfOrganizingMap som) {
+            bmuSearch = som.createBmuSearch();
+            input = new double[som.inputSize];
+        }
+
+        @Override
+        protected void compute() {
+            int inputSize = som.inputSize;
+            for (int s=from; s<to; s++) {
+                System.arraycopy(samples, s * inputSize, input, 0, inputSize);
+                if (metrics != null && metrics.isTimed(++steps)) {
+                    long start = System.nanoTime();
+                    winners[s] = bmuSearch.getClosestNeuronIndex(input);
+                    metrics.record(TrainingMetrics.Phase.BMU_SEARCH, System.nanoTime() - start);
+                    metrics.recordNeuronsTouched(countNeighbours(winners[s]));
+                }
+                else {
+                    winners[s] = bmuSearch.getClosestNeuronIndex(input);
+                }
+            }
+        }
+
+        private int countNeighbours(int winnerNeuron) {
+            int touched = 0;
+            for (int k=0; k<kernel.size; k++) {
+                if (kernel.isInside(k, som.neuronGridIndices, winnerNeuron)) {
+                    touched++;
+                }
+            }
+            return touched;
+        }
+    }
+
+    /**
+     * Task owning a range of neurons: it sums the samples won by its neurons and then updates
+     * its neurons from the sums of all winners in their neighbourhood
+     */
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromNeuron;
+        private final int toNeuron;
+        private final int[] winnerList;         // Neurons of the range which won a sample in this epoch
+        private int winnerCount = 0;            // Number of entries in winnerList
+        private final int[] touchedNeurons;     // Neurons of the range with a non zero denominator
+        private boolean update;                 // Update phase instead of the summing phase
+        private NeighbourhoodKernel kernel;
+        private double eta;
+
+        RangeTask(int fromNeuron, int toNeuron) {
+            this.fromNeuron = fromNeuron;
+            this.toNeuron = toNeuron;
+            winnerList = new int[toNeuron - fromNeuron];
+            touchedNeurons = new int[toNeuron - fromNeuron];
+        }
+
+        @Override
+        protected void compute() {
+            if (update) {
+                updateNeurons();
+            }
+            else {
+                sumWinners();
+            }
+        }
+
+        /**
+         * Clear the sums of the last epoch and add the samples won by the neurons of this range
+         */
+        private void sumWinners() {
+            int inputSize = som.inputSize;
+            for (int w=0; w<winnerCount; w++) {
+                int neuronIndex = winnerList[w];
+                Arrays.fill(winnerSums, neuronIndex * inputSize, (neuronIndex + 1) * inputSize, 0);
+                winnerCounts[neuronIndex] = 0;
+            }
+            winnerCount = 0;
+
+            for (int s=0; s<count; s++) {
+                int neuronIndex = winners[s];
+                if (neuronIndex < fromNeuron || neuronIndex >= toNeuron) {
+                    continue;
+                }
+                if (winnerCounts[neuronIndex]++ == 0) {
+                    winnerList[winnerCount++] = neuronIndex;
+                }
+                int sumOffset = neuronIndex * inputSize;
+                int sampleOffset = s * inputSize;
+                for (int i=0; i<inputSize; i++) {
+                    winnerSums[sumOffset + i] += samples[sampleOffset + i];
+                }
+            }
+        }
+
+        /**
+         * Add the sums of all winners to the neurons of this range in their neighbourhood and move them
+         */
+        private void updateNeurons() {
+            int inputSize = som.inputSize;
+            int touchedCount = 0;
+            for (RangeTask winnerTask : rangeTasks) {
+                for (int w=0; w<winnerTask.winnerCount; w++) {
+                    int winnerNeuron = winnerTask.winnerList[w];
+                    int wins = winnerCounts[winnerNeuron];
+                    // only the entries which reach this range
+                    int end = findSortedEntry(toNeuron - winnerNeuron);
+                    for (int e=findSortedEntry(fromNeuron - winnerNeuron); e<end; e++) {
+                        int k = sortedEntries[e];
+                        if (!kernel.isInside(k, som.neuronGridIndices, winnerNeuron)) {
+                            continue;
+                        }
+                        int neuronIndex = winnerNeuron + kernel.indexOffsets[k];
+
+                        double influence = kernel.influences[k];
+                        if (influence > 0 && denominators[neuronIndex] == 0) {
+                            touchedNeurons[touchedCount++] = neuronIndex;
+                        }
+                        int weightOffset = neuronIndex * inputSize;
+                        int sumOffset = winnerNeuron * inputSize;
+                        for (int i=0; i<inputSize; i++) {
+                            numerators[weightOffset + i] += influence * winnerSums[sumOffset + i];
+                        }
+                        denominators[neuronIndex] += influence * wins;
+                    }
+                }
+            }
+
+            for (int t=0; t<touchedCount; t++) {
+                int neuronIndex = touchedNeurons[t];
+                double denominator = denominators[neuronIndex];
+                int weightOffset = neuronIndex * inputSize;
+                for (int i=0; i<inputSize; i++) {
+                    int weightIndex = weightOffset + i;
+                    double weight = som.weights.get(weightIndex);
+                    som.weights.set(weightIndex, weight + eta * (numerators[weightIndex] / denominator - weight));
+                    numerators[weightIndex] = 0;
+                }
+                denominators[neuronIndex] = 0;
+            }
+        }
+    }
+}
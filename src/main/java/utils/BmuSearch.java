@@ -0,0 +1,225 @@
+package utils;
+
+/**
+ * Strategy for finding the best matching unit (the neuron closest to an input sample) of a som.
+ *
+ * Every strategy keeps track of its own hit quality by comparing some of its results with the
+ * exact linear search of the som. It also measures the quantization and topographic error of
+ * some searched samples, which show the training progress as moving averages.
+ * Instances keep internal state and are not thread safe.
+ */
+public abstract class BmuSearch {
+
+    /**
+     * Available search strategies
+     */
+    public enum Type {
+        LINEAR("Linear scan"),
+        KD_TREE("k-d tree"),
+        WARM_START("Warm start (grid walk)");
+
+        private final String displayName;
+
+        Type(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * Create a new search instance of this type for a som
+         *
+         * @param som The som to search in
+         * @return New search instance
+         */
+        public BmuSearch create(SelfOrganizingMap som) {
+            switch (this) {
+                case KD_TREE:
+                    return new KdTreeBmuSearch(som);
+                case WARM_START:
+                    return new WarmStartBmuSearch(som);
+                default:
+                    return new LinearBmuSearch(som);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    protected final SelfOrganizingMap som;      // som to search in
+    public int validationInterval = 1000;       // Compare every n-th result with the exact search (0 disables it)
+    public int errorInterval = 16;              // Measure the training errors every n-th search (0 disables it)
+    public double errorSmoothing = 0.002;       // Weight of a new measurement in the moving averages
+
+    // hit quality
+    private long searches = 0;
+    private volatile long validations = 0;
+    private volatile long hits = 0;
+    private volatile double distanceErrorSum = 0;
+
+    // training errors (exponential moving averages)
+    private final int[] secondIndex = new int[1];
+    private volatile long errorMeasurements = 0;
+    private volatile double quantizationError = 0;
+    private volatile double topographicError = 0;
+
+    public BmuSearch(SelfOrganizingMap som) {
+        this.som = som;
+    }
+
+    /**
+     * Get the index of the closest neuron to the input sample
+     *
+     * @param input An input sample (length should be bigger or equal to the inputSize of the som)
+     * @return single index of the closest neuron
+     */
+    public int getClosestNeuronIndex(double input[]) {
+        long searches = ++this.searches;
+        int winnerIndex;
+        if (errorInterval > 0 && searches % errorInterval == 0) {
+            winnerIndex = searchTwo(input, secondIndex);
+            measureErrors(input, winnerIndex, secondIndex[0]);
+        }
+        else {
+            winnerIndex = search(input);
+        }
+
+        if (validationInterval > 0 && searches % validationInterval == 0) {
+            validate(input, winnerIndex);
+        }
+
+        return winnerIndex;
+    }
+
+    /**
+     * Notify the search about weights, which were changed all at once (e.g. by a batch update)
+     */
+    public void weightsChanged() {
+    }
+
+    /**
+     * Strategy specific search
+     *
+     * @param input An input sample
+     * @return index of the (maybe approximated) closest neuron
+     */
+    protected abstract int search(double input[]);
+
+    /**
+     * Strategy specific search, which finds the second closest neuron as well (for the topographic error).
+     * Strategies find it on the way of their own search, so measuring the errors does not add a full scan.
+     *
+     * @param input An input sample
+     * @param secondIndex Output for the index of the second closest neuron (-1 if there is none)
+     * @return index of the (maybe approximated) closest neuron
+     */
+    protected abstract int searchTwo(double input[], int secondIndex[]);
+
+    /**
+     * Compare a search result with the exact search
+     *
+     * @param input The searched input sample
+     * @param winnerIndex Neuron index found by this strategy
+     */
+    private void validate(double input[], int winnerIndex) {
+        int exactIndex = som.getClosestNeuronIndexExact(input);
+        double distance = Math.sqrt(som.getDistanceSq(input, winnerIndex));
+        double exactDistance = Math.sqrt(som.getDistanceSq(input, exactIndex));
+
+        // equal distances count as hit as well
+        if (exactIndex == winnerIndex || distance <= exactDistance) {
+            hits++;
+        }
+        distanceErrorSum += distance - exactDistance;
+        validations++;
+    }
+
+    /**
+     * Add the errors of one sample to the moving averages
+     *
+     * @param input The searched input sample
+     * @param winnerIndex Neuron index found by this strategy
+     * @param secondIndex Index of the second closest neuron (-1 if there is none)
+     */
+    private void measureErrors(double input[], int winnerIndex, int secondIndex) {
+        double distance = Math.sqrt(som.getDistanceSq(input, winnerIndex));
+        double topographic = secondIndex >= 0 && !som.areGridNeighbours(winnerIndex, secondIndex) ? 1 : 0;
+
+        // plain mean until enough samples are measured for the moving average
+        long measurements = errorMeasurements + 1;
+        double weight = Math.max(errorSmoothing, 1.0 / measurements);
+        quantizationError += weight * (distance - quantizationError);
+        topographicError += weight * (topographic - topographicError);
+        errorMeasurements = measurements;
+    }
+
+    /**
+     * Get the moving average of the distance between the samples and their best matching unit
+     *
+     * @return quantization error (0.0 if nothing was measured yet)
+     */
+    public double getQuantizationError() {
+        return quantizationError;
+    }
+
+    /**
+     * Get the moving average of the fraction of samples whose best and second best matching units
+     * are no direct neighbours in the grid
+     *
+     * @return topographic error in the range [0.0 ; 1.0] (0.0 if nothing was measured yet)
+     */
+    public double getTopographicError() {
+        return topographicError;
+    }
+
+    /**
+     * Get the number of samples measured for the training errors
+     *
+     * @return number of measurements
+     */
+    public long getErrorMeasurements() {
+        return errorMeasurements;
+    }
+
+    /**
+     * Get the fraction of validated searches which found the exact closest neuron
+     *
+     * @return hit rate in the range [0.0 ; 1.0] (1.0 if nothing was validated yet)
+     */
+    public double getHitRate() {
+        long validations = this.validations;
+        return validations == 0 ? 1.0 : (double)hits / validations;
+    }
+
+    /**
+     * Get the mean additional euclidean distance of the found neurons compared to the exact ones
+     *
+     * @return mean distance error (0.0 if nothing was validated yet)
+     */
+    public double getMeanDistanceError() {
+        long validations = this.validations;
+        return validations == 0 ? 0.0 : distanceErrorSum / validations;
+    }
+
+    /**
+     * Get the number of validated searches
+     *
+     * @return number of validations
+     */
+    public long getValidations() {
+        return validations;
+    }
+
+    /**
+     * Reset the hit quality statistics and the training errors
+     */
+    public void resetStatistics() {
+        validations = 0;
+        hits = 0;
+        distanceErrorSum = 0;
+        errorMeasurements = 0;
+        quantizationError = 0;
+        topographicError = 0;
+    }
+}
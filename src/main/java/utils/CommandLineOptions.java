@@ -0,0 +1,37 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options of the command line tools (headless trainer and benchmark runner).
+ */
+public class CommandLineOptions {
+
+    private CommandLineOptions() {
+    }
+
+    /**
+     * Parse arguments of the form --name=value (or --name for true)
+     *
+     * @param args Command line arguments
+     * @return options by name
+     * @throws IllegalArgumentException if an argument does not start with --
+     */
+    public static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            }
+            else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,190 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Sorts element indices by their depth without objects or comparators.
+ *
+ * The camera only moves a little between two frames, so the order of the previous frame is almost sorted.
+ * It gets repaired with an insertion sort, which gives up after a limited number of moves (e.g. after a
+ * fast rotation) and falls back to a radix sort over the float bits of the depths. After such a failure the
+ * next few frames are sorted from scratch right away.
+ * Equal depths are ordered by their element index, so both ways give the same result.
+ */
+public class DepthSorter {
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_SIZE = 1 << RADIX_BITS;
+
+    public int maxMovesPerElement = 8;          // Insertion sort gives up after count * maxMovesPerElement moves
+    public int radixFramesAfterFailure = 8;     // Sorts from scratch after the insertion sort gave up (fast rotation)
+
+    private int[] order = new int[0];           // Element indices from far to near
+    private int[] keys = new int[0];            // Sortable depth bits of each element
+    private int[] orderBuffer = new int[0];     // Second order array for the radix passes
+    private int[] sortedKeys = new int[0];      // Keys in the current radix order
+    private int[] sortedKeysBuffer = new int[0];
+    private final int[] bucketCounts = new int[RADIX_SIZE];
+    private int count = -1;                     // Number of elements of the previous order (-1 for none)
+    private int radixFrames = 0;                // Remaining sorts which skip the insertion sort
+
+    // statistics
+    private long insertionSorts = 0;
+    private long radixSorts = 0;
+
+    /**
+     * Sort the elements by ascending depth
+     *
+     * @param depth Depth of each element
+     * @param count Number of elements
+     * @return element indices in ascending depth (only the first count values are valid, the array is reused)
+     */
+    public int[] sort(double[] depth, int count) {
+        if (order.length < count) {
+            order = new int[count];
+            keys = new int[count];
+            orderBuffer = new int[count];
+            sortedKeys = new int[count];
+            sortedKeysBuffer = new int[count];
+            this.count = -1;
+        }
+        for (int i=0; i<count; i++) {
+            keys[i] = sortableBits((float) depth[i]);
+        }
+
+        boolean sameElements = count == this.count;
+        this.count = count;
+        if (sameElements && radixFrames == 0) {
+            if (insertionSort(count)) {
+                insertionSorts++;
+                return order;
+            }
+            radixFrames = radixFramesAfterFailure;
+        }
+        else if (radixFrames > 0) {
+            radixFrames--;
+        }
+        radixSort(count);
+        radixSorts++;
+        return order;
+    }
+
+    /**
+     * Forget the previous order, so the next sort starts from scratch
+     */
+    public void invalidate() {
+        count = -1;
+        radixFrames = 0;
+    }
+
+    /**
+     * Repair the previous order
+     *
+     * @param count Number of elements
+     * @return false, if it gave up (the order is a permutation, but not sorted then)
+     */
+    private boolean insertionSort(int count) {
+        long maxMoves = (long) count * maxMovesPerElement;
+        long moves = 0;
+        for (int i=1; i<count; i++) {
+            int element = order[i];
+            int key = keys[element];
+            int j = i - 1;
+            while (j >= 0 && isAfter(order[j], keys[order[j]], element, key)) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = element;
+
+            moves += i - 1 - j;
+            if (moves > maxMoves) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAfter(int elementA, int keyA, int elementB, int keyB) {
+        return keyA > keyB || (keyA == keyB && elementA > elementB);
+    }
+
+    /**
+     * Sort from scratch with a least significant digit radix sort (stable, so equal depths stay in index order)
+     *
+     * @param count Number of elements
+     */
+    private void radixSort(int count) {
+        int[] order = this.order;
+        int[] sortedKeys = this.sortedKeys;
+        int[] orderBuffer = this.orderBuffer;
+        int[] sortedKeysBuffer = this.sortedKeysBuffer;
+        for (int i=0; i<count; i++) {
+            order[i] = i;
+            sortedKeys[i] = keys[i] ^ 0x80000000; // signed order as unsigned digits
+        }
+
+        for (int shift=0; shift<32; shift+=RADIX_BITS) {
+            Arrays.fill(bucketCounts, 0);
+            for (int i=0; i<count; i++) {
+                bucketCounts[(sortedKeys[i] >>> shift) & (RADIX_SIZE - 1)]++;
+            }
+
+            // all keys share this digit
+            if (count == 0 || bucketCounts[(sortedKeys[0] >>> shift) & (RADIX_SIZE - 1)] == count) {
+                continue;
+            }
+
+            int start = 0;
+            for (int b=0; b<RADIX_SIZE; b++) {
+                int bucketCount = bucketCounts[b];
+                bucketCounts[b] = start;
+                start += bucketCount;
+            }
+            for (int i=0; i<count; i++) {
+                int target = bucketCounts[(sortedKeys[i] >>> shift) & (RADIX_SIZE - 1)]++;
+                orderBuffer[target] = order[i];
+                sortedKeysBuffer[target] = sortedKeys[i];
+            }
+
+            int[] swapOrder = order;
+            order = orderBuffer;
+            orderBuffer = swapOrder;
+            int[] swapKeys = sortedKeys;
+            sortedKeys = sortedKeysBuffer;
+            sortedKeysBuffer = swapKeys;
+        }
+
+        this.order = order;
+        this.orderBuffer = orderBuffer;
+        this.sortedKeys = sortedKeys;
+        this.sortedKeysBuffer = sortedKeysBuffer;
+    }
+
+    /**
+     * Get the number of sorts which repaired the previous order
+     *
+     * @return number of insertion sorts
+     */
+    public long getInsertionSorts() {
+        return insertionSorts;
+    }
+
+    /**
+     * Get the number of sorts from scratch
+     *
+     * @return number of radix sorts
+     */
+    public long getRadixSorts() {
+        return radixSorts;
+    }
+
+    /**
+     * Convert a float into bits, which sort like the float values when compared as signed ints
+     *
+     * @param value The value
+     * @return sortable bits
+     */
+    static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+}
@@ -0,0 +1,144 @@
+package utils;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Weight store backed by a double array on the heap
+ */
+public class DoubleArrayWeightStore extends WeightStore {
+    private final double[] weights;
+
+    public DoubleArrayWeightStore(int numNeurons, int inputSize) {
+        super(numNeurons, inputSize);
+        weights = new double[size];
+    }
+
+    @Override
+    public Type getType() {
+        return Type.HEAP_DOUBLE;
+    }
+
+    @Override
+    public double get(int index) {
+        return weights[index];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        weights[index] = value;
+    }
+
+    @Override
+    public double distanceSq(int neuronIndex, double[] input, double maxDistanceSq) {
+        double distance = 0;
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            double delta = input[i] - weights[offset + i];
+            distance += delta * delta;
+
+            if (distance > maxDistanceSq) {
+                break;
+            }
+        }
+
+        return distance;
+    }
+
+    @Override
+    public int getClosestNeuronIndex(double[] input) {
+        if (!BLOCKED_KERNELS || inputSize < BLOCKED_MIN_INPUT_SIZE) {
+            return super.getClosestNeuronIndex(input);
+        }
+
+        // compare 4 neurons at once without a branch per component
+        double shortestDistance = Double.MAX_VALUE;
+        int winnerIndex = 0;
+        int n = 0;
+        for (; n + 4 <= numNeurons; n += 4) {
+            int offset0 = n * inputSize;
+            int offset1 = offset0 + inputSize;
+            int offset2 = offset1 + inputSize;
+            int offset3 = offset2 + inputSize;
+            double distance0 = 0;
+            double distance1 = 0;
+            double distance2 = 0;
+            double distance3 = 0;
+            for (int chunkStart = 0; chunkStart < inputSize; chunkStart += BLOCK_CHUNK) {
+                int chunkEnd = Math.min(inputSize, chunkStart + BLOCK_CHUNK);
+                for (int i=chunkStart; i<chunkEnd; i++) {
+                    double value = input[i];
+                    double delta0 = value - weights[offset0 + i];
+                    double delta1 = value - weights[offset1 + i];
+                    double delta2 = value - weights[offset2 + i];
+                    double delta3 = value - weights[offset3 + i];
+                    distance0 += delta0 * delta0;
+                    distance1 += delta1 * delta1;
+                    distance2 += delta2 * delta2;
+                    distance3 += delta3 * delta3;
+                }
+
+                // none of them can win anymore
+                if (distance0 > shortestDistance && distance1 > shortestDistance
+                        && distance2 > shortestDistance && distance3 > shortestDistance) {
+                    break;
+                }
+            }
+
+            if (distance0 < shortestDistance) {
+                winnerIndex = n;
+                shortestDistance = distance0;
+            }
+            if (distance1 < shortestDistance) {
+                winnerIndex = n + 1;
+                shortestDistance = distance1;
+            }
+            if (distance2 < shortestDistance) {
+                winnerIndex = n + 2;
+                shortestDistance = distance2;
+            }
+            if (distance3 < shortestDistance) {
+                winnerIndex = n + 3;
+                shortestDistance = distance3;
+            }
+        }
+
+        // remaining neurons
+        for (; n<numNeurons; n++) {
+            double distance = distanceSq(n, input, shortestDistance);
+            if (distance < shortestDistance) {
+                winnerIndex = n;
+                shortestDistance = distance;
+            }
+        }
+
+        return winnerIndex;
+    }
+
+    @Override
+    public void moveTowards(int neuronIndex, double[] input, double factor) {
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            weights[offset + i] += factor * (input[i] - weights[offset + i]);
+        }
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return 8L * size;
+    }
+
+    @Override
+    public void copyTo(double[] out) {
+        System.arraycopy(weights, 0, out, 0, size);
+    }
+
+    @Override
+    public void copyTo(int offset, DoubleBuffer target) {
+        target.put(weights, offset, target.remaining());
+    }
+
+    @Override
+    public void copyFrom(int offset, DoubleBuffer source) {
+        source.get(weights, offset, source.remaining());
+    }
+}
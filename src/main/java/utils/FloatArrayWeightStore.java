@@ -0,0 +1,128 @@
+package utils;
+
+/**
+ * Weight store backed by a float array on the heap.
+ * It halves the memory and the memory bandwidth of the best matching unit search.
+ */
+public class FloatArrayWeightStore extends WeightStore {
+    private final float[] weights;
+
+    public FloatArrayWeightStore(int numNeurons, int inputSize) {
+        super(numNeurons, inputSize);
+        weights = new float[size];
+    }
+
+    @Override
+    public Type getType() {
+        return Type.HEAP_FLOAT;
+    }
+
+    @Override
+    public double get(int index) {
+        return weights[index];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        weights[index] = (float)value;
+    }
+
+    @Override
+    public double distanceSq(int neuronIndex, double[] input, double maxDistanceSq) {
+        double distance = 0;
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            double delta = input[i] - weights[offset + i];
+            distance += delta * delta;
+
+            if (distance > maxDistanceSq) {
+                break;
+            }
+        }
+
+        return distance;
+    }
+
+    @Override
+    public int getClosestNeuronIndex(double[] input) {
+        if (!BLOCKED_KERNELS || inputSize < BLOCKED_MIN_INPUT_SIZE) {
+            return super.getClosestNeuronIndex(input);
+        }
+
+        // compare 4 neurons at once without a branch per component (in float precision like the weights)
+        double shortestDistance = Double.MAX_VALUE;
+        int winnerIndex = 0;
+        int n = 0;
+        for (; n + 4 <= numNeurons; n += 4) {
+            int offset0 = n * inputSize;
+            int offset1 = offset0 + inputSize;
+            int offset2 = offset1 + inputSize;
+            int offset3 = offset2 + inputSize;
+            float distance0 = 0;
+            float distance1 = 0;
+            float distance2 = 0;
+            float distance3 = 0;
+            for (int chunkStart = 0; chunkStart < inputSize; chunkStart += BLOCK_CHUNK) {
+                int chunkEnd = Math.min(inputSize, chunkStart + BLOCK_CHUNK);
+                for (int i=chunkStart; i<chunkEnd; i++) {
+                    float value = (float)input[i];
+                    float delta0 = value - weights[offset0 + i];
+                    float delta1 = value - weights[offset1 + i];
+                    float delta2 = value - weights[offset2 + i];
+                    float delta3 = value - weights[offset3 + i];
+                    distance0 += delta0 * delta0;
+                    distance1 += delta1 * delta1;
+                    distance2 += delta2 * delta2;
+                    distance3 += delta3 * delta3;
+                }
+
+                // none of them can win anymore
+                if (distance0 > shortestDistance && distance1 > shortestDistance
+                        && distance2 > shortestDistance && distance3 > shortestDistance) {
+                    break;
+                }
+            }
+
+            if (distance0 < shortestDistance) {
+                winnerIndex = n;
+                shortestDistance = distance0;
+            }
+            if (distance1 < shortestDistance) {
+                winnerIndex = n + 1;
+                shortestDistance = distance1;
+            }
+            if (distance2 < shortestDistance) {
+                winnerIndex = n + 2;
+                shortestDistance = distance2;
+            }
+            if (distance3 < shortestDistance) {
+                winnerIndex = n + 3;
+                shortestDistance = distance3;
+            }
+        }
+
+        // remaining neurons
+        for (; n<numNeurons; n++) {
+            double distance = distanceSq(n, input, shortestDistance);
+            if (distance < shortestDistance) {
+                winnerIndex = n;
+                shortestDistance = distance;
+            }
+        }
+
+        return winnerIndex;
+    }
+
+    @Override
+    public void moveTowards(int neuronIndex, double[] input, double factor) {
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            weights[offset + i] += (float)(factor * (input[i] - weights[offset + i]));
+        }
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return 4L * size;
+    }
+}
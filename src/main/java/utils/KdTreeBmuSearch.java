@@ -0,0 +1,227 @@
+package utils;
+
+/**
+ * Best matching unit search with a k-d tree over the neuron weights.
+ *
+ * The neurons keep moving during training, so the tree is rebuilt periodically. In between, the
+ * split planes are slightly outdated, which makes the search approximate. The hit rate shows
+ * how close it stays to the exact search.
+ */
+public class KdTreeBmuSearch extends BmuSearch {
+    private static final int BUCKET_SIZE = 8;           // Maximum number of neurons in a leaf
+    public int rebuildInterval = 1000;                  // Number of searches after which the tree is rebuilt
+
+    private final int[] order;                          // Neuron indices in tree order
+    private final int[] splitDimensions;                // Split dimension of each node (-1 for leafs)
+    private final double[] splitValues;                 // Split value of each node
+    private final double[] selectValues;                // Split dimension values of the order array while building
+    private int searchesSinceBuild = -1;
+
+    // variables for the current search
+    private double bestDistanceSq;
+    private int bestIndex;
+    private boolean findSecond;                         // Search the second closest neuron as well
+    private double secondDistanceSq;
+    private int secondIndex;
+
+    public KdTreeBmuSearch(SelfOrganizingMap som) {
+        super(som);
+        order = new int[som.numNeurons];
+        selectValues = new double[som.numNeurons];
+
+        // the tree is balanced, so the depth is known in advance
+        int size = som.numNeurons;
+        int depth = 0;
+        while (size > BUCKET_SIZE) {
+            size = (size + 1) / 2;
+            depth++;
+        }
+        splitDimensions = new int[1 << (depth + 1)];
+        splitValues = new double[1 << (depth + 1)];
+    }
+
+    @Override
+    protected int search(double[] input) {
+        if (searchesSinceBuild < 0 || searchesSinceBuild >= rebuildInterval) {
+            rebuild();
+        }
+        searchesSinceBuild++;
+
+        bestDistanceSq = Double.MAX_VALUE;
+        bestIndex = 0;
+        findSecond = false;
+        searchNode(input, 1, 0, order.length);
+        return bestIndex;
+    }
+
+    @Override
+    protected int searchTwo(double[] input, int[] secondIndex) {
+        if (searchesSinceBuild < 0 || searchesSinceBuild >= rebuildInterval) {
+            rebuild();
+        }
+        searchesSinceBuild++;
+
+        bestDistanceSq = Double.MAX_VALUE;
+        bestIndex = 0;
+        findSecond = true;
+        this.secondDistanceSq = Double.MAX_VALUE;
+        this.secondIndex = -1;
+        searchNode(input, 1, 0, order.length);
+        secondIndex[0] = this.secondIndex;
+        return bestIndex;
+    }
+
+    @Override
+    public void weightsChanged() {
+        searchesSinceBuild = -1;
+    }
+
+    /**
+     * Rebuild the tree from the current neuron weights
+     */
+    public void rebuild() {
+        for (int i=0; i<order.length; i++) {
+            order[i] = i;
+        }
+        buildNode(1, 0, order.length);
+        searchesSinceBuild = 0;
+    }
+
+    /**
+     * Build one node of the tree recursively
+     *
+     * @param node Node index (children are at 2 * node and 2 * node + 1)
+     * @param from First index in the order array (inclusive)
+     * @param to Last index in the order array (exclusive)
+     */
+    private void buildNode(int node, int from, int to) {
+        if (to - from <= BUCKET_SIZE) {
+            splitDimensions[node] = -1;
+            return;
+        }
+
+        // split along the dimension with the biggest spread
+        int inputSize = som.inputSize;
+        WeightStore weights = som.weights;
+        int splitDimension = 0;
+        double biggestSpread = -1;
+        for (int i=0; i<inputSize; i++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int j=from; j<to; j++) {
+                double value = weights.get(order[j] * inputSize + i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > biggestSpread) {
+                biggestSpread = max - min;
+                splitDimension = i;
+            }
+        }
+
+        // other workers may write the weights meanwhile, so the selection works on a copy
+        for (int j=from; j<to; j++) {
+            selectValues[j] = weights.get(order[j] * inputSize + splitDimension);
+        }
+        int mid = (from + to) >>> 1;
+        selectNth(from, to, mid);
+        splitDimensions[node] = splitDimension;
+        splitValues[node] = selectValues[mid];
+
+        buildNode(2 * node, from, mid);
+        buildNode(2 * node + 1, mid, to);
+    }
+
+    /**
+     * Partially sort the order array by the copied values, so that the n-th element is at its sorted position (quickselect)
+     *
+     * @param from First index (inclusive)
+     * @param to Last index (exclusive)
+     * @param n Wanted index
+     */
+    private void selectNth(int from, int to, int n) {
+        double[] values = selectValues;
+        int left = from;
+        int right = to - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmpValue = values[i];
+                    values[i] = values[j];
+                    values[j] = tmpValue;
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (n <= j) {
+                right = j;
+            }
+            else if (n >= i) {
+                left = i;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Search one node recursively, visiting the closer child first
+     *
+     * @param input Input sample
+     * @param node Node index
+     * @param from First index in the order array (inclusive)
+     * @param to Last index in the order array (exclusive)
+     */
+    private void searchNode(double[] input, int node, int from, int to) {
+        int splitDimension = splitDimensions[node];
+        if (splitDimension < 0) {
+            for (int i=from; i<to; i++) {
+                int n = order[i];
+                double distance = som.getDistanceSq(input, n, findSecond ? secondDistanceSq : bestDistanceSq);
+                if (distance < bestDistanceSq) {
+                    if (findSecond) {
+                        secondDistanceSq = bestDistanceSq;
+                        secondIndex = bestDistanceSq < Double.MAX_VALUE ? bestIndex : -1;
+                    }
+                    bestDistanceSq = distance;
+                    bestIndex = n;
+                }
+                else if (findSecond && distance < secondDistanceSq) {
+                    secondDistanceSq = distance;
+                    secondIndex = n;
+                }
+            }
+            return;
+        }
+
+        // with the second closest neuron, its distance limits the search
+        int mid = (from + to) >>> 1;
+        double delta = input[splitDimension] - splitValues[node];
+        if (delta < 0) {
+            searchNode(input, 2 * node, from, mid);
+            if (delta * delta < (findSecond ? secondDistanceSq : bestDistanceSq)) {
+                searchNode(input, 2 * node + 1, mid, to);
+            }
+        }
+        else {
+            searchNode(input, 2 * node + 1, mid, to);
+            if (delta * delta < (findSecond ? secondDistanceSq : bestDistanceSq)) {
+                searchNode(input, 2 * node, from, mid);
+            }
+        }
+    }
+}
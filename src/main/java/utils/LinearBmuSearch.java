@@ -0,0 +1,25 @@
+package utils;
+
+/**
+ * Reference search which scans all neurons of the som.
+ * It is exact, so no validation is done. The second closest neuron costs only one more comparison
+ * per neuron, so the training errors are measured more often.
+ */
+public class LinearBmuSearch extends BmuSearch {
+
+    public LinearBmuSearch(SelfOrganizingMap som) {
+        super(som);
+        validationInterval = 0;
+        errorInterval = 8;
+    }
+
+    @Override
+    protected int search(double[] input) {
+        return som.getClosestNeuronIndexExact(input);
+    }
+
+    @Override
+    protected int searchTwo(double[] input, int[] secondIndex) {
+        return som.weights.getClosestNeuronIndices(input, secondIndex);
+    }
+}
@@ -0,0 +1,94 @@
+package utils;
+
+/**
+ * Precomputed neighbourhood of a som.
+ *
+ * Stores every grid offset around a winner neuron, whose influence is above the threshold, together
+ * with its influence. It only depends on phi and the grid shape, so it gets reused until one of them
+ * changes. Instances are immutable and can be shared between threads.
+ */
+public class NeighbourhoodKernel {
+    public final double phi;                    // Phi the influences were calculated with
+    public final int dimensions;                // Number of grid dimensions
+    public final int neuronPerDimension;        // Number of neurons for each dimension
+    public final int size;                      // Number of entries
+    public final int[] offsets;                 // N-dimensional grid offset of each entry
+    public final int[] indexOffsets;            // Neuron index offset of each entry
+    public final double[] influences;           // Influence of each entry
+
+    /**
+     * Calculate the kernel for a som
+     *
+     * @param som The som providing the grid shape and the distance function
+     * @param phi Variable for the distance function
+     */
+    public NeighbourhoodKernel(SelfOrganizingMap som, double phi) {
+        this.phi = phi;
+        this.dimensions = som.dimensions;
+        this.neuronPerDimension = som.neuronPerDimension;
+
+        // biggest offset with an influence above the threshold
+        int radius = (int)Math.min(neuronPerDimension - 1, Math.floor(Math.sqrt(-Math.log(som.INFLUENCE_THRESHOLD) / phi)));
+        int width = 2 * radius + 1;
+        int maxSize = 1;
+        for (int d=0; d<dimensions; d++) {
+            maxSize *= width;
+        }
+
+        int[] allOffsets = new int[maxSize * dimensions];
+        int[] allIndexOffsets = new int[maxSize];
+        double[] allInfluences = new double[maxSize];
+        int count = 0;
+        for (int i=0; i<maxSize; i++) {
+
+            // the entry index is a number with digits from -radius to radius
+            int digits = i;
+            int distanceSq = 0;
+            int indexOffset = 0;
+            int product = 1;
+            for (int d=0; d<dimensions; d++) {
+                int offset = digits % width - radius;
+                digits /= width;
+                allOffsets[count * dimensions + d] = offset;
+                distanceSq += offset * offset;
+                indexOffset += offset * product;
+                product *= neuronPerDimension;
+            }
+
+            double influence = Math.exp(-distanceSq * phi);
+            if (influence >= som.INFLUENCE_THRESHOLD) {
+                allIndexOffsets[count] = indexOffset;
+                allInfluences[count] = influence;
+                count++;
+            }
+        }
+
+        size = count;
+        offsets = new int[count * dimensions];
+        indexOffsets = new int[count];
+        influences = new double[count];
+        System.arraycopy(allOffsets, 0, offsets, 0, count * dimensions);
+        System.arraycopy(allIndexOffsets, 0, indexOffsets, 0, count);
+        System.arraycopy(allInfluences, 0, influences, 0, count);
+    }
+
+    /**
+     * Check if the kernel entry lies inside the grid, when it is applied at the given winner
+     *
+     * @param entry Index of the kernel entry
+     * @param gridIndices Grid indices of all neurons (see SelfOrganizingMap.neuronGridIndices)
+     * @param winnerNeuron Index of the winner neuron
+     * @return true if the neighbour exists
+     */
+    public boolean isInside(int entry, int[] gridIndices, int winnerNeuron) {
+        int entryOffset = entry * dimensions;
+        int winnerOffset = winnerNeuron * dimensions;
+        for (int d=0; d<dimensions; d++) {
+            int position = gridIndices[winnerOffset + d] + offsets[entryOffset + d];
+            if (position < 0 || position >= neuronPerDimension) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Weight store backed by direct buffers outside of the java heap.
+ * Big maps do not count towards the heap size and are not moved by the garbage collector.
+ * A direct buffer holds at most 2^31 bytes, so the weights are split into chunks of whole neurons
+ * with up to 2^27 weights each.
+ */
+public class OffHeapWeightStore extends WeightStore {
+    private static final int MAX_CHUNK_WEIGHTS = 1 << 27;  // Weights per direct buffer (1 GiB)
+
+    private final DoubleBuffer[] chunks;        // Weights of chunkNeurons neurons each (the last one may be smaller)
+    private final DoubleBuffer first;           // First chunk (the only one of most maps)
+    private final int chunkNeurons;             // Neurons per chunk
+    private final int chunkWeights;             // Weights per chunk
+
+    public OffHeapWeightStore(int numNeurons, int inputSize) {
+        super(numNeurons, inputSize);
+        chunkNeurons = Math.max(1, Math.min(numNeurons, MAX_CHUNK_WEIGHTS / Math.max(1, inputSize)));
+        chunkWeights = chunkNeurons * inputSize;
+        int chunkCount = Math.max(1, (numNeurons + chunkNeurons - 1) / chunkNeurons);
+        chunks = new DoubleBuffer[chunkCount];
+        for (int c=0; c<chunkCount; c++) {
+            long weights = Math.min((long) chunkWeights, (long) size - (long) c * chunkWeights);
+            chunks[c] = ByteBuffer.allocateDirect((int) (8L * weights)).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        first = chunks[0];
+    }
+
+    @Override
+    public Type getType() {
+        return Type.OFF_HEAP_DOUBLE;
+    }
+
+    @Override
+    public double get(int index) {
+        if (index < chunkWeights) {
+            return first.get(index);
+        }
+        return chunks[index / chunkWeights].get(index % chunkWeights);
+    }
+
+    @Override
+    public void set(int index, double value) {
+        if (index < chunkWeights) {
+            first.put(index, value);
+        }
+        else {
+            chunks[index / chunkWeights].put(index % chunkWeights, value);
+        }
+    }
+
+    @Override
+    public double distanceSq(int neuronIndex, double[] input, double maxDistanceSq) {
+        DoubleBuffer weights = chunks[neuronIndex / chunkNeurons];
+        double distance = 0;
+        int offset = (neuronIndex % chunkNeurons) * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            double delta = input[i] - weights.get(offset + i);
+            distance += delta * delta;
+
+            if (distance > maxDistanceSq) {
+                break;
+            }
+        }
+
+        return distance;
+    }
+
+    @Override
+    public void moveTowards(int neuronIndex, double[] input, double factor) {
+        DoubleBuffer weights = chunks[neuronIndex / chunkNeurons];
+        int offset = (neuronIndex % chunkNeurons) * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            double weight = weights.get(offset + i);
+            weights.put(offset + i, weight + factor * (input[i] - weight));
+        }
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return 8L * size;
+    }
+
+    @Override
+    public void copyTo(int offset, DoubleBuffer target) {
+        while (target.hasRemaining()) {
+            DoubleBuffer view = chunks[offset / chunkWeights].duplicate();
+            view.position(offset % chunkWeights);
+            view.limit(Math.min(view.capacity(), view.position() + target.remaining()));
+            offset += view.remaining();
+            target.put(view);
+        }
+    }
+
+    @Override
+    public void copyFrom(int offset, DoubleBuffer source) {
+        while (source.hasRemaining()) {
+            DoubleBuffer view = chunks[offset / chunkWeights].duplicate();
+            view.position(offset % chunkWeights);
+            int count = Math.min(view.remaining(), source.remaining());
+            DoubleBuffer part = source.duplicate();
+            part.limit(part.position() + count);
+            view.put(part);
+            source.position(source.position() + count);
+            offset += count;
+        }
+    }
+}
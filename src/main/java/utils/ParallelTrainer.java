@@ -0,0 +1,330 @@
+package utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Online training of a som with a pool of worker threads.
+ *
+ * Every worker generates its own samples and trains with its own scratch state. The workers write
+ * into the shared weights without locks (hogwild style). Optionally, the neuron updates can be
+ * guarded by striped locks, so overlapping neighbourhood updates do not interleave.
+ * The number of workers can be changed while training.
+ */
+public class ParallelTrainer {
+    private static final int LOCK_STRIPES = 64;             // Number of striped locks over the neurons
+    private static final int PUBLISH_INTERVAL = 256;        // Iterations between publishing worker statistics
+    private static final long RATE_INTERVAL_NANOS = 500000000L; // Time between iterations/second updates
+
+    /**
+     * Generator for training samples. Each worker gets its own instance.
+     */
+    public interface SampleSource {
+
+        /**
+         * Fill the input array with a new training sample
+         *
+         * @param input Input array which will be set to the new input values.
+         */
+        void fill(double[] input);
+
+        /**
+         * Release the resources of the source, called when its worker stops
+         */
+        default void close() {
+        }
+    }
+
+    private final Supplier<SampleSource> sampleSourceFactory;   // Creates the sample source of each worker
+    private final List<Worker> workers = new CopyOnWriteArrayList<>(); // Running workers (readable without the lock)
+    private final Object[] updateLocks;                         // Striped locks for the locked update mode
+    private volatile SelfOrganizingMap som;                     // Som to train
+    private volatile long finishedIterations = 0;               // Iterations of already stopped workers
+    private final AtomicReference<Throwable> failure = new AtomicReference<>(); // First error which stopped a worker
+    public volatile double eta = 0.01;                          // Learning rate
+    public volatile boolean stripedLocking = false;             // Guard the neuron updates by striped locks
+    public volatile long workerIterationLimit = Long.MAX_VALUE; // Each worker stops after this many iterations
+    public volatile SnapshotScheduler snapshotScheduler = null; // Takes snapshots of the som during the training
+    public volatile long iterationOffset = 0;                   // Added to the iterations passed to the snapshots
+    public volatile TrainingMetrics metrics = null;             // Receives the iterations and step latencies (or null)
+    public volatile WeightSnapshots weightSnapshots = null;     // Receives copies of the weights for the visualizers (or null)
+
+    /**
+     * Class for one worker thread
+     */
+    private class Worker extends Thread {
+        private volatile boolean stop = false;
+        private volatile long iterations = 0;
+        private volatile double iterationsPerSecond = 0;
+        private volatile BmuSearch bmuSearch = null;
+
+        Worker(int index) {
+            super("Som training worker " + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            SampleSource sampleSource = sampleSourceFactory.get();
+            SelfOrganizingMap.Scratch scratch = null;
+            double input[] = null;
+            long localIterations = 0;
+            long rateStartTime = System.nanoTime();
+            long rateStartIterations = 0;
+
+            try {
+                while (!stop && localIterations < workerIterationLimit) {
+                    SelfOrganizingMap som = ParallelTrainer.this.som;
+                    if (scratch == null || scratch.getSom() != som) {
+                        scratch = new SelfOrganizingMap.Scratch(som, true);
+                        input = new double[som.inputSize];
+                    }
+                    scratch.updateLocks = stripedLocking ? updateLocks : null;
+
+                    TrainingMetrics metrics = ParallelTrainer.this.metrics;
+                    if (metrics != null && metrics.isTimed(localIterations)) {
+                        trainTimed(sampleSource, som, input, scratch, metrics);
+                    }
+                    else {
+                        sampleSource.fill(input);
+                        som.train(input, eta, scratch);
+                    }
+                    localIterations++;
+
+                    // publish the statistics from time to time only
+                    if (localIterations % PUBLISH_INTERVAL == 0) {
+                        iterations = localIterations;
+                        if (metrics != null) {
+                            metrics.addIterations(PUBLISH_INTERVAL);
+                        }
+                        bmuSearch = scratch.getBmuSearch();
+                        SnapshotScheduler scheduler = snapshotScheduler;
+                        if (scheduler != null) {
+                            scheduler.maybeSnapshot(som, iterationOffset + countIterations());
+                        }
+                        WeightSnapshots weightSnapshots = ParallelTrainer.this.weightSnapshots;
+                        if (weightSnapshots != null) {
+                            weightSnapshots.maybePublish(som);
+                        }
+                        long now = System.nanoTime();
+                        if (now - rateStartTime >= RATE_INTERVAL_NANOS) {
+                            iterationsPerSecond = (localIterations - rateStartIterations) * 1e9 / (now - rateStartTime);
+                            rateStartTime = now;
+                            rateStartIterations = localIterations;
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            } finally {
+                // always publish the final count, so nobody waits for a dead worker
+                sampleSource.close();
+                TrainingMetrics metrics = ParallelTrainer.this.metrics;
+                if (metrics != null) {
+                    metrics.addIterations(localIterations % PUBLISH_INTERVAL);
+                }
+                iterations = localIterations;
+                iterationsPerSecond = 0;
+            }
+        }
+
+        /**
+         * Train one iteration and record the duration of each phase
+         */
+        private void trainTimed(SampleSource sampleSource, SelfOrganizingMap som, double[] input,
+                                SelfOrganizingMap.Scratch scratch, TrainingMetrics metrics) {
+            long start = System.nanoTime();
+            sampleSource.fill(input);
+            long sampled = System.nanoTime();
+            int winnerNeuron = scratch.getBmuSearch().getClosestNeuronIndex(input);
+            long searched = System.nanoTime();
+            int touched = som.updateNeighbourhood(input, winnerNeuron, eta, scratch);
+            long updated = System.nanoTime();
+
+            metrics.record(TrainingMetrics.Phase.SAMPLE, sampled - start);
+            metrics.record(TrainingMetrics.Phase.BMU_SEARCH, searched - sampled);
+            metrics.record(TrainingMetrics.Phase.UPDATE, updated - searched);
+            metrics.recordNeuronsTouched(touched);
+        }
+    }
+
+    /**
+     * Create a parallel trainer. No worker is started yet.
+     *
+     * @param som The som to train
+     * @param sampleSourceFactory Creates one sample source for each worker
+     */
+    public ParallelTrainer(SelfOrganizingMap som, Supplier<SampleSource> sampleSourceFactory) {
+        this.som = som;
+        this.sampleSourceFactory = sampleSourceFactory;
+        this.updateLocks = new Object[LOCK_STRIPES];
+        for (int i=0; i<updateLocks.length; i++) {
+            updateLocks[i] = new Object();
+        }
+    }
+
+    public SelfOrganizingMap getSom() {
+        return som;
+    }
+
+    /**
+     * Set the som to train. The workers switch to it with their next iteration.
+     *
+     * @param som The som to train
+     */
+    public void setSom(SelfOrganizingMap som) {
+        this.som = som;
+    }
+
+    /**
+     * Change the number of workers. Additional workers get started, surplus ones stopped.
+     *
+     * @param count Wanted number of workers (0 stops the training)
+     */
+    public synchronized void setWorkerCount(int count) {
+        while (workers.size() < count) {
+            Worker worker = new Worker(workers.size());
+            workers.add(worker);
+            worker.start();
+        }
+
+        while (workers.size() > count) {
+            Worker worker = workers.remove(workers.size() - 1);
+            worker.stop = true;
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finishedIterations += worker.iterations;
+        }
+    }
+
+    /**
+     * Get the number of running workers
+     *
+     * @return number of workers
+     */
+    public synchronized int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Stop all workers
+     */
+    public void stop() {
+        setWorkerCount(0);
+    }
+
+    /**
+     * Get the number of iterations of all workers (including stopped ones)
+     *
+     * @return number of training iterations
+     */
+    public synchronized long getIterations() {
+        long sum = finishedIterations;
+        for (Worker worker : workers) {
+            sum += worker.iterations;
+        }
+        return sum;
+    }
+
+    /**
+     * Count the iterations without the lock, so workers can call it while the worker count changes
+     *
+     * @return number of training iterations (a worker which is just stopping may be missing)
+     */
+    private long countIterations() {
+        long sum = finishedIterations;
+        for (Worker worker : workers) {
+            sum += worker.iterations;
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the iteration counter
+     */
+    public synchronized void resetIterations() {
+        finishedIterations -= getIterations();
+    }
+
+    /**
+     * Get the first error which stopped a worker
+     *
+     * @return the error (null if no worker failed)
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Get the mean hit rate of the best matching unit searches of all workers
+     *
+     * @return hit rate in the range [0.0 ; 1.0]
+     */
+    public synchronized double getBmuHitRate() {
+        double sum = 0;
+        int count = 0;
+        for (Worker worker : workers) {
+            BmuSearch bmuSearch = worker.bmuSearch;
+            if (bmuSearch != null) {
+                sum += bmuSearch.getHitRate();
+                count++;
+            }
+        }
+        return count == 0 ? 1.0 : sum / count;
+    }
+
+    /**
+     * Get the moving average of the quantization error over all workers
+     *
+     * @return mean quantization error of the workers (0.0 if nothing was measured yet)
+     */
+    public double getQuantizationError() {
+        double sum = 0;
+        int count = 0;
+        for (Worker worker : workers) {
+            BmuSearch bmuSearch = worker.bmuSearch;
+            if (bmuSearch != null && bmuSearch.getErrorMeasurements() > 0) {
+                sum += bmuSearch.getQuantizationError();
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * Get the moving average of the topographic error over all workers
+     *
+     * @return mean topographic error of the workers (0.0 if nothing was measured yet)
+     */
+    public double getTopographicError() {
+        double sum = 0;
+        int count = 0;
+        for (Worker worker : workers) {
+            BmuSearch bmuSearch = worker.bmuSearch;
+            if (bmuSearch != null && bmuSearch.getErrorMeasurements() > 0) {
+                sum += bmuSearch.getTopographicError();
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * Get the training speed of each worker
+     *
+     * @return iterations per second for each running worker
+     */
+    public synchronized double[] getIterationsPerSecond() {
+        double[] rates = new double[workers.size()];
+        for (int i=0; i<rates.length; i++) {
+            rates[i] = workers.get(i).iterationsPerSecond;
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,187 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Projection of high dimensional som weights and samples into 3 dimensions for the visualizers.
+ *
+ * It either picks 3 components of the vectors or uses the first 3 principal components of the som
+ * weights. The principal components are learned incrementally with the generalized hebbian
+ * algorithm (Sanger's rule), a few neurons per frame.
+ */
+public class Projection {
+
+    /**
+     * Available projection modes
+     */
+    public enum Mode {
+        COMPONENTS("Selected components"),
+        PCA("PCA (incremental)");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private static final double MEAN_RATE = 0.01;           // Learning rate of the running mean
+    private static final double PCA_RATE = 0.005;           // Learning rate of the principal components
+
+    public Mode mode = Mode.COMPONENTS;                     // Current projection mode
+    public final int[] components = {0, 1, 2};              // Vector components used for x, y and z
+
+    // incremental pca
+    private int inputSize = 0;
+    private double[] mean;                                  // Running mean of the weights
+    private double[] basis;                                 // 3 principal components, one after another
+    private double[] sample;
+    private double[] residual;
+    private final double[] y = new double[3];
+    private final Random random = new Random();
+
+    // change detection
+    private long version = 0;                               // Changes whenever the projection changes
+    private Mode versionMode = null;                        // Mode of the current version
+    private final int[] versionComponents = new int[3];     // Components of the current version
+
+    /**
+     * Learn the principal components from some neurons of the som (only in pca mode)
+     *
+     * @param som The som to learn from
+     * @param steps Number of neurons to learn from
+     */
+    public void update(SelfOrganizingMap som, int steps) {
+        update(som, null, steps);
+    }
+
+    /**
+     * Learn the principal components from some neurons of a copy of the som weights (only in pca mode)
+     *
+     * @param som The som to learn from
+     * @param weights Copy of all weights of the som (null to read the weights of the som)
+     * @param steps Number of neurons to learn from
+     */
+    public void update(SelfOrganizingMap som, double[] weights, int steps) {
+        if (mode != Mode.PCA) {
+            return;
+        }
+        if (inputSize != som.inputSize) {
+            reset(som.inputSize);
+        }
+        if (steps > 0) {
+            version++;
+        }
+
+        for (int s=0; s<steps; s++) {
+            int neuronIndex = random.nextInt(som.numNeurons);
+            if (weights != null) {
+                System.arraycopy(weights, neuronIndex * inputSize, sample, 0, inputSize);
+            }
+            else {
+                som.weights.getNeuron(neuronIndex, sample);
+            }
+
+            // update the mean and center the sample
+            for (int i=0; i<inputSize; i++) {
+                mean[i] += MEAN_RATE * (sample[i] - mean[i]);
+                residual[i] = sample[i] - mean[i];
+            }
+            for (int k=0; k<3; k++) {
+                y[k] = dot(k, residual);
+            }
+
+            // Sanger's rule: each component learns from what the previous ones do not explain
+            for (int k=0; k<3; k++) {
+                int offset = k * inputSize;
+                for (int i=0; i<inputSize; i++) {
+                    residual[i] -= y[k] * basis[offset + i];
+                    basis[offset + i] += PCA_RATE * y[k] * residual[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Project one vector into 3 dimensions
+     *
+     * @param vector Array containing the vector
+     * @param offset Index of the first vector component in the array
+     * @param out Output array for x, y and z (length should be at least 3)
+     */
+    public void project(double[] vector, int offset, double[] out) {
+        if (mode == Mode.PCA && inputSize > 0) {
+            for (int k=0; k<3; k++) {
+                double sum = 0;
+                for (int i=0; i<inputSize; i++) {
+                    sum += basis[k * inputSize + i] * (vector[offset + i] - mean[i]);
+                }
+                out[k] = sum;
+            }
+        }
+        else {
+            for (int k=0; k<3; k++) {
+                out[k] = vector[offset + components[k]];
+            }
+        }
+    }
+
+    /**
+     * Set the components used in the components mode
+     *
+     * @param x Component index for x
+     * @param y Component index for y
+     * @param z Component index for z
+     */
+    public void setComponents(int x, int y, int z) {
+        components[0] = x;
+        components[1] = y;
+        components[2] = z;
+    }
+
+    /**
+     * Get a number which changes whenever the projection changes, i.e. when the pca learns
+     * or the mode or components were set. Call it from the thread which changes the projection.
+     *
+     * @return version of the projection
+     */
+    public long getVersion() {
+        if (mode != versionMode || !Arrays.equals(components, versionComponents)) {
+            versionMode = mode;
+            System.arraycopy(components, 0, versionComponents, 0, versionComponents.length);
+            version++;
+        }
+        return version;
+    }
+
+    /**
+     * Restart the pca with the first 3 unit vectors as components
+     *
+     * @param inputSize Size of the projected vectors
+     */
+    private void reset(int inputSize) {
+        this.inputSize = inputSize;
+        mean = new double[inputSize];
+        basis = new double[3 * inputSize];
+        sample = new double[inputSize];
+        residual = new double[inputSize];
+        for (int k=0; k<Math.min(3, inputSize); k++) {
+            basis[k * inputSize + k] = 1;
+        }
+    }
+
+    private double dot(int component, double[] vector) {
+        double sum = 0;
+        int offset = component * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            sum += basis[offset + i] * vector[i];
+        }
+        return sum;
+    }
+}
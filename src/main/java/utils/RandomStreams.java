@@ -0,0 +1,51 @@
+package utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Independent random number streams for multiple threads.
+ *
+ * Each thread draws from its own SplittableRandom, so sampling needs no shared state. All streams
+ * created from the same seed in the same order produce the same numbers, which makes runs reproducible.
+ */
+public class RandomStreams {
+
+    private static final RandomStreams DEFAULT = new RandomStreams();
+    private static final ThreadLocal<SplittableRandom> THREAD_STREAM = ThreadLocal.withInitial(DEFAULT::next);
+
+    private final SplittableRandom root;    // Source of the streams, only used while holding the lock
+
+    /**
+     * Create streams with a random seed
+     */
+    public RandomStreams() {
+        this.root = new SplittableRandom();
+    }
+
+    /**
+     * Create reproducible streams
+     *
+     * @param seed Seed of all streams
+     */
+    public RandomStreams(long seed) {
+        this.root = new SplittableRandom(seed);
+    }
+
+    /**
+     * Create the next independent stream. The stream itself must only be used by one thread.
+     *
+     * @return new random generator
+     */
+    public synchronized SplittableRandom next() {
+        return root.split();
+    }
+
+    /**
+     * Get the unseeded stream of the current thread
+     *
+     * @return random generator of the calling thread
+     */
+    public static SplittableRandom current() {
+        return THREAD_STREAM.get();
+    }
+}
@@ -0,0 +1,294 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Generates training samples on producer threads ahead of the training.
+ *
+ * A fixed ring of sample blocks circulates between two queues: producers take empty blocks, fill them and
+ * hand them to the consumers, which give them back when all samples are used. After the start no memory is
+ * allocated, unless the input size changes.
+ * If a block source fails, the error is passed on to the consumers, so they do not wait for samples forever.
+ */
+public class SamplePipeline {
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Fills blocks with samples. Each producer thread gets its own block source.
+     */
+    public interface BlockSource {
+
+        /**
+         * Generate multiple samples, stored one after another
+         *
+         * @param samples Output array with at least count * inputSize values
+         * @param count Number of samples
+         * @param inputSize Number of values of each sample
+         */
+        void fill(double[] samples, int count, int inputSize);
+    }
+
+    /**
+     * One block of samples of the ring
+     */
+    private static class Block {
+        double[] samples = new double[0];   // Samples, one after another
+        int inputSize;                      // Number of values of each sample
+    }
+
+    /**
+     * Reads samples from the pipeline. Each consumer thread needs its own reader.
+     */
+    public class Reader implements ParallelTrainer.SampleSource {
+        private Block block = null;         // Current block
+        private int next = 0;               // Index of the next unused sample in the block
+
+        @Override
+        public void fill(double[] input) {
+            fill(input, 1, input.length);
+        }
+
+        /**
+         * Copy multiple samples into an array
+         *
+         * @param out Output array with at least count * inputSize values
+         * @param count Number of samples
+         * @param inputSize Number of values of each sample
+         */
+        public void fill(double[] out, int count, int inputSize) {
+            int copied = 0;
+            while (copied < count) {
+                if (block == null || next == blockSize || block.inputSize != inputSize) {
+                    if (block != null) {
+                        emptyBlocks.add(block);
+                    }
+                    block = takeFilledBlock();
+                    next = 0;
+                    continue;
+                }
+
+                int n = Math.min(count - copied, blockSize - next);
+                System.arraycopy(block.samples, next * inputSize, out, copied * inputSize, n * inputSize);
+                next += n;
+                copied += n;
+            }
+        }
+
+        /**
+         * Give the current block back to the producers
+         */
+        @Override
+        public void close() {
+            if (block != null) {
+                emptyBlocks.add(block);
+                block = null;
+            }
+        }
+    }
+
+    /**
+     * Producer thread
+     */
+    private class Producer extends Thread {
+
+        Producer(int index) {
+            super("Sample producer " + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            BlockSource source = sourceFactory.get();
+            try {
+                while (running) {
+                    Block block = emptyBlocks.poll();
+                    if (block == null) {
+                        producerStalls.increment();
+                        long start = System.nanoTime();
+                        while (running && block == null) {
+                            block = emptyBlocks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        }
+                        producerStallNanos.add(System.nanoTime() - start);
+                        if (block == null) {
+                            break;
+                        }
+                    }
+
+                    int size = inputSize.getAsInt();
+                    if (block.samples.length < blockSize * size) {
+                        block.samples = new double[blockSize * size];
+                    }
+                    block.inputSize = size;
+                    source.fill(block.samples, blockSize, size);
+                    filledBlocks.add(block);
+                    producedBlocks.increment();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+        }
+    }
+
+    private final int ringSize;                                 // Number of blocks
+    private final int blockSize;                                // Number of samples per block
+    private final IntSupplier inputSize;                        // Current number of values per sample
+    private final Supplier<BlockSource> sourceFactory;          // Creates the block source of each producer
+    private final ArrayBlockingQueue<Block> emptyBlocks;        // Blocks waiting for the producers
+    private final ArrayBlockingQueue<Block> filledBlocks;       // Blocks waiting for the consumers
+    private final List<Producer> producers = new ArrayList<>();
+    private volatile boolean running = false;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>(); // First error which stopped a producer
+
+    private final LongAdder producedBlocks = new LongAdder();       // Number of filled blocks
+    private final LongAdder producerStalls = new LongAdder();       // Times a producer found no empty block
+    private final LongAdder producerStallNanos = new LongAdder();   // Time producers waited for empty blocks
+    private final LongAdder consumerStalls = new LongAdder();       // Times a consumer found no filled block
+    private final LongAdder consumerStallNanos = new LongAdder();   // Time consumers waited for filled blocks
+
+    /**
+     * Create a pipeline. Nothing is produced before start() is called.
+     *
+     * @param ringSize Number of blocks
+     * @param blockSize Number of samples per block
+     * @param inputSize Current number of values per sample, read before each block gets filled
+     * @param sourceFactory Creates the block source of each producer
+     */
+    public SamplePipeline(int ringSize, int blockSize, IntSupplier inputSize, Supplier<BlockSource> sourceFactory) {
+        this.ringSize = ringSize;
+        this.blockSize = blockSize;
+        this.inputSize = inputSize;
+        this.sourceFactory = sourceFactory;
+        this.emptyBlocks = new ArrayBlockingQueue<>(ringSize);
+        this.filledBlocks = new ArrayBlockingQueue<>(ringSize);
+        for (int i=0; i<ringSize; i++) {
+            emptyBlocks.add(new Block());
+        }
+    }
+
+    /**
+     * Start the producer threads
+     *
+     * @param producerCount Number of producer threads
+     */
+    public synchronized void start(int producerCount) {
+        running = true;
+        while (producers.size() < producerCount) {
+            Producer producer = new Producer(producers.size());
+            producers.add(producer);
+            producer.start();
+        }
+    }
+
+    /**
+     * Stop the producer threads. Readers must not be used afterwards.
+     */
+    public synchronized void stop() {
+        running = false;
+        for (Producer producer : producers) {
+            producer.interrupt();
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        producers.clear();
+    }
+
+    /**
+     * Create a reader for one consumer thread
+     *
+     * @return new reader
+     */
+    public Reader createReader() {
+        return new Reader();
+    }
+
+    private Block takeFilledBlock() {
+        Block block = filledBlocks.poll();
+        if (block != null) {
+            return block;
+        }
+
+        consumerStalls.increment();
+        long start = System.nanoTime();
+        try {
+            while (block == null) {
+                Throwable failure = this.failure.get();
+                if (failure != null) {
+                    throw new IllegalStateException("Sample producer failed: " + failure, failure);
+                }
+                if (!running) {
+                    throw new IllegalStateException("Sample pipeline is stopped");
+                }
+                block = filledBlocks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for samples", e);
+        } finally {
+            consumerStallNanos.add(System.nanoTime() - start);
+        }
+        return block;
+    }
+
+    /**
+     * Get the first error which stopped a producer
+     *
+     * @return the error (null if no producer failed)
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public synchronized int getProducerCount() {
+        return producers.size();
+    }
+
+    /**
+     * Get the number of filled blocks waiting for the consumers
+     *
+     * @return queue depth in the range [0 ; ringSize]
+     */
+    public int getQueueDepth() {
+        return filledBlocks.size();
+    }
+
+    public long getProducedBlocks() {
+        return producedBlocks.sum();
+    }
+
+    public long getProducerStalls() {
+        return producerStalls.sum();
+    }
+
+    public double getProducerStallSeconds() {
+        return producerStallNanos.sum() * 1e-9;
+    }
+
+    public long getConsumerStalls() {
+        return consumerStalls.sum();
+    }
+
+    public double getConsumerStallSeconds() {
+        return consumerStallNanos.sum() * 1e-9;
+    }
+}
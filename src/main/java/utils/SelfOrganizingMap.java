@@ -1,5 +1,7 @@
 package utils;
 
+import java.util.SplittableRandom;
+
 /**
  * This class enables creating n-dimensional Self Organizing Maps
  * with a n-dimensional cube structure.
@@ -10,18 +12,71 @@ public class SelfOrganizingMap {
     public final int dimensions;                        // Number of dimensions
     public final int neuronPerDimension;                // Number of neurons for each dimension
     public final int inputSize;                         // Input size of one sample
-    public final double weights[];                      // Stores weights for all neurons
+    public final WeightStore weights;                   // Stores weights for all neurons
     public final double neuronGridPositions[];          // Stores n-dimensional grid positions
     public final int neuronGridIndices[];               // Stores n-dimensional grid index
 
-    // variables for calculation
-    private final int[] tmpNeuronPositions;
-    private final int[] tmpIterators;
+    // variables for calculation (of the single threaded train method)
+    private final Scratch scratch;
+
+    // cached neighbourhood
+    private volatile NeighbourhoodKernel kernel;
+
+    // best matching unit search
+    private volatile BmuSearch.Type bmuSearchType = BmuSearch.Type.LINEAR;
+    private volatile BmuSearch bmuSearch;
 
     // distance function
     public double phi = 0.2;                            // Variable for the distance function
                                                         // (bigger => stronger influence falloff)
 
+    /**
+     * Temporary state of one training thread.
+     *
+     * Every thread calling train needs its own scratch. All threads write into the shared weights
+     * without locks, unless updateLocks is set.
+     */
+    public static class Scratch {
+        private final SelfOrganizingMap som;
+        private final boolean ownBmuSearch;
+        private BmuSearch bmuSearch;
+        private BmuSearch.Type bmuSearchType;
+        public Object[] updateLocks = null;     // Striped locks for the neuron updates (null for lock free updates)
+
+        /**
+         * Create a scratch for a som
+         *
+         * @param som The som to train
+         * @param ownBmuSearch Use an own search instance instead of the shared one of the som
+         */
+        public Scratch(SelfOrganizingMap som, boolean ownBmuSearch) {
+            this.som = som;
+            this.ownBmuSearch = ownBmuSearch;
+        }
+
+        public SelfOrganizingMap getSom() {
+            return som;
+        }
+
+        /**
+         * Get the search used by this scratch
+         *
+         * @return the search strategy
+         */
+        public BmuSearch getBmuSearch() {
+            if (!ownBmuSearch) {
+                return som.getBmuSearch();
+            }
+
+            // follow changes of the search type
+            if (bmuSearchType != som.getBmuSearchType()) {
+                bmuSearchType = som.getBmuSearchType();
+                bmuSearch = bmuSearchType.create(som);
+            }
+            return bmuSearch;
+        }
+    }
+
     /**
      * Initialize Self Organizing Map (SOM).
      *
@@ -30,11 +85,36 @@ public class SelfOrganizingMap {
      * @param neuronPerDimension Number of neurons for each dimension.
      */
     public SelfOrganizingMap(int inputSize, int dimensions, int neuronPerDimension) {
+        this(inputSize, dimensions, neuronPerDimension, WeightStore.Type.HEAP_DOUBLE);
+    }
+
+    /**
+     * Initialize Self Organizing Map (SOM) with a specific weight storage.
+     *
+     * @param inputSize The number of parameters each training sample has.
+     * @param dimensions The number of dimensions for the neurons gird (inner shape representation).
+     * @param neuronPerDimension Number of neurons for each dimension.
+     * @param weightStoreType Backend for storing the weights.
+     */
+    public SelfOrganizingMap(int inputSize, int dimensions, int neuronPerDimension, WeightStore.Type weightStoreType) {
+        this(inputSize, dimensions, neuronPerDimension, weightStoreType, RandomStreams.current());
+    }
+
+    /**
+     * Initialize Self Organizing Map (SOM) with reproducible initial weights.
+     *
+     * @param inputSize The number of parameters each training sample has.
+     * @param dimensions The number of dimensions for the neurons gird (inner shape representation).
+     * @param neuronPerDimension Number of neurons for each dimension.
+     * @param weightStoreType Backend for storing the weights.
+     * @param random Random generator for the initial weights (null leaves all weights at 0, e.g. before they get loaded).
+     */
+    public SelfOrganizingMap(int inputSize, int dimensions, int neuronPerDimension, WeightStore.Type weightStoreType, SplittableRandom random) {
         this.dimensions = dimensions;
         this.neuronPerDimension = neuronPerDimension;
         this.inputSize = inputSize;
         this.numNeurons = getNumNeurons();
-        this.weights = new double[numNeurons * inputSize];
+        this.weights = weightStoreType.create(numNeurons, inputSize);
         this.neuronGridPositions = new double[numNeurons * dimensions];
         this.neuronGridIndices = new int[numNeurons * dimensions];
 
@@ -44,24 +124,38 @@ public class SelfOrganizingMap {
         }
 
         // initialize weights
-        for (int n=0; n<numNeurons; n++) {
+        for (int n=0; n<numNeurons && random != null; n++) {
             for (int i=0; i<inputSize; i++) {
                 if (i < dimensions) {
-                    weights[n * inputSize + i] = 0.5 * (neuronGridPositions[n * dimensions + i] / neuronPerDimension - 0.5);
+                    weights.set(n * inputSize + i, 0.5 * (neuronGridPositions[n * dimensions + i] / neuronPerDimension - 0.5));
                 }
                 else {
-                    weights[n * inputSize + i] = Math.random() * 0.005 - 0.0025;
+                    weights.set(n * inputSize + i, random.nextDouble() * 0.005 - 0.0025);
                 }
             }
         }
 
+        bmuSearch = new LinearBmuSearch(this);
+
         // for faster calculations
-        tmpNeuronPositions = new int[dimensions];
-        tmpIterators = new int[dimensions];
+        scratch = new Scratch(this, false);
     }
 
     public SelfOrganizingMap(int inputSize, int dimensions, int neuronPerDimension, SelfOrganizingMap map) {
-        this(inputSize, dimensions, neuronPerDimension);
+        this(inputSize, dimensions, neuronPerDimension, map != null ? map.weights.getType() : WeightStore.Type.HEAP_DOUBLE, map);
+    }
+
+    /**
+     * Initialize Self Organizing Map (SOM) with the weights of another som, which gets scaled to the new size.
+     *
+     * @param inputSize The number of parameters each training sample has.
+     * @param dimensions The number of dimensions for the neurons gird (inner shape representation).
+     * @param neuronPerDimension Number of neurons for each dimension.
+     * @param weightStoreType Backend for storing the weights.
+     * @param map Som to copy the weights from (only used if dimensions and inputSize match).
+     */
+    public SelfOrganizingMap(int inputSize, int dimensions, int neuronPerDimension, WeightStore.Type weightStoreType, SelfOrganizingMap map) {
+        this(inputSize, dimensions, neuronPerDimension, weightStoreType);
 
         if (map != null && map.dimensions == dimensions && map.inputSize == inputSize) {
 
@@ -69,7 +163,7 @@ public class SelfOrganizingMap {
             double tmpMapPositions[] = new double[dimensions];
             double randomShift[] = new double[dimensions];
             for (int d=0; d<dimensions; d++) {
-                randomShift[d] = Math.random() - 0.5;
+                randomShift[d] = RandomStreams.current().nextDouble() - 0.5;
             }
             for (int i=0; i<numNeurons; i++) {
                 for (int d=0; d<dimensions; d++) {
@@ -80,12 +174,31 @@ public class SelfOrganizingMap {
                 // copy position of nearest neighbour in the grid
                 int nearestNeighbourIndex = map.getNeuronIndexByGridPosition(tmpMapPositions);
                 for (int j=0; j<inputSize; j++) {
-                    weights[i * inputSize + j] = map.weights[nearestNeighbourIndex * map.inputSize + j];
+                    weights.set(i * inputSize + j, map.weights.get(nearestNeighbourIndex * map.inputSize + j));
                 }
             }
         }
     }
 
+    /**
+     * Get the number of neurons for each dimension, so the grid gets close to a wanted number of neurons
+     *
+     * @param numberOfNeurons Wanted number of neurons
+     * @param dimensions Number of grid dimensions
+     * @return Number of neurons for each dimension
+     */
+    public static int getNeuronPerDimension(int numberOfNeurons, int dimensions) {
+        if (dimensions == 1) {
+            return numberOfNeurons;
+        }
+        else if (dimensions == 2){
+            return (int)Math.round(Math.sqrt(numberOfNeurons));
+        }
+        else {
+            return (int)Math.round(Math.pow(numberOfNeurons, 1. / dimensions));
+        }
+    }
+
     /**
      * Get the number of neurons
      *
@@ -101,36 +214,99 @@ public class SelfOrganizingMap {
     }
 
     /**
-     * Get the index of the closest neuron to the input sample
+     * Get the index of the closest neuron to the input sample using the current search strategy
      *
      * @param input An input sample (length should be bigger or equal to the inputSize of the som)
      * @return single index of the closest neuron
      */
     public int getClosestNeuronIndex(double input[]) {
-        // calculate each distance
-        double shortestDistance = Double.MAX_VALUE;
-        int winnerIndex = 0;
-        for (int n=0; n<numNeurons; n++) {
-
-            // use euclidean
-            double distance = 0;
-            for (int i = 0; i< inputSize; i++) {
-                double delta = input[i] - weights[i + n * inputSize];
-                distance += delta * delta;
-
-                if (distance > shortestDistance) {
-                    break;
-                }
-            }
+        return bmuSearch.getClosestNeuronIndex(input);
+    }
 
-            if (distance < shortestDistance) {
-                winnerIndex = n;
-                shortestDistance = distance;
-            }
+    /**
+     * Get the index of the closest neuron to the input sample by scanning all neurons
+     *
+     * @param input An input sample (length should be bigger or equal to the inputSize of the som)
+     * @return single index of the closest neuron
+     */
+    public int getClosestNeuronIndexExact(double input[]) {
+        return weights.getClosestNeuronIndex(input);
+    }
+
+    /**
+     * Check if two neurons are direct neighbours in the grid (their grid indices differ by one in a single dimension)
+     *
+     * @param neuronIndexA Index of the first neuron
+     * @param neuronIndexB Index of the second neuron
+     * @return true, if the neurons are neighbours
+     */
+    public boolean areGridNeighbours(int neuronIndexA, int neuronIndexB) {
+        int gridDistance = 0;
+        for (int d=0; d<dimensions; d++) {
+            gridDistance += Math.abs(neuronGridIndices[neuronIndexA * dimensions + d] - neuronGridIndices[neuronIndexB * dimensions + d]);
         }
+        return gridDistance == 1;
+    }
 
-        // return the prototype (winner)
-        return winnerIndex;
+    /**
+     * Get the squared euclidean distance between an input sample and a neuron
+     *
+     * @param input An input sample
+     * @param neuronIndex Index of the neuron
+     * @return squared distance
+     */
+    public double getDistanceSq(double input[], int neuronIndex) {
+        return getDistanceSq(input, neuronIndex, Double.MAX_VALUE);
+    }
+
+    /**
+     * Get the squared euclidean distance between an input sample and a neuron.
+     * The calculation stops early as soon as the distance exceeds maxDistanceSq.
+     *
+     * @param input An input sample
+     * @param neuronIndex Index of the neuron
+     * @param maxDistanceSq Distance from which on the exact value is not needed
+     * @return squared distance (or a value bigger than maxDistanceSq)
+     */
+    public double getDistanceSq(double input[], int neuronIndex, double maxDistanceSq) {
+        return weights.distanceSq(neuronIndex, input, maxDistanceSq);
+    }
+
+    /**
+     * Get the strategy used for the best matching unit search
+     *
+     * @return the search strategy
+     */
+    public BmuSearch getBmuSearch() {
+        return bmuSearch;
+    }
+
+    /**
+     * Set the strategy used for the best matching unit search
+     *
+     * @param type Type of the search strategy
+     */
+    public void setBmuSearchType(BmuSearch.Type type) {
+        bmuSearchType = type;
+        bmuSearch = type.create(this);
+    }
+
+    /**
+     * Get the type of the strategy used for the best matching unit search
+     *
+     * @return Type of the search strategy
+     */
+    public BmuSearch.Type getBmuSearchType() {
+        return bmuSearchType;
+    }
+
+    /**
+     * Create an additional search instance of the current strategy (e.g. for other threads)
+     *
+     * @return New search instance
+     */
+    public BmuSearch createBmuSearch() {
+        return bmuSearchType.create(this);
     }
 
     /**
@@ -140,10 +316,7 @@ public class SelfOrganizingMap {
      * @param outNeuronWeights Output array which the values will be stored in (length should equal to som dimensions)
      */
     public void getNeuronWeightsFromGridPosition(double gridPosition[], double outNeuronWeights[]) {
-        int winnerIndex = getNeuronIndexByGridPosition(gridPosition);
-        for (int i = 0; i< inputSize; i++) {
-            outNeuronWeights[i] = weights[winnerIndex * inputSize + i];
-        }
+        weights.getNeuron(getNeuronIndexByGridPosition(gridPosition), outNeuronWeights);
     }
 
     /**
@@ -153,110 +326,69 @@ public class SelfOrganizingMap {
      * @param eta learning rate. It should stay in the range [0.0 ; 1.0] to be stable.
      */
     public void train(double input[], double eta) {
-        int winnerNeuron = getClosestNeuronIndex(input);
-
-        // clear temp variables
-        for (int i=0; i<dimensions; i++) {
-            tmpIterators[i] = 0;
-            tmpNeuronPositions[i] = 0;
-        }
-
-
-        // Treat the n-dimensional grid indices as if they were a number and count through them.
-        // starting with dimension 0
-        while (true) {
-            // calculate distance and phi
-            double distanceToNeuronSq = 0;
-            for (int i = 0; i < dimensions; i++) {
-                double delta = tmpIterators[i];
-                distanceToNeuronSq += delta * delta;
-            }
+        train(input, eta, scratch);
+    }
 
-            double phi = distanceFunction(distanceToNeuronSq);
-            boolean influenceToSmall = phi < INFLUENCE_THRESHOLD;
+    /**
+     * Train the som with a single training sample using the temporary state of the calling thread
+     *
+     * @param input one input sample (length equal to the som dimensions)
+     * @param eta learning rate. It should stay in the range [0.0 ; 1.0] to be stable.
+     * @param scratch Temporary state of the calling thread (created for this som)
+     */
+    public void train(double input[], double eta, Scratch scratch) {
+        int winnerNeuron = scratch.getBmuSearch().getClosestNeuronIndex(input);
+        updateNeighbourhood(input, winnerNeuron, eta, scratch);
+    }
 
-            if (!influenceToSmall) {
-                //counter++;
-                doNeuronUpdateRecursivelyByDelta(eta, phi, input, tmpNeuronPositions, winnerNeuron, tmpIterators, 0);
+    /**
+     * Move the winner and its neighbours towards a training sample (the second half of train)
+     *
+     * @param input one input sample (length equal to the som dimensions)
+     * @param winnerNeuron Index of the best matching unit of the sample
+     * @param eta learning rate. It should stay in the range [0.0 ; 1.0] to be stable.
+     * @param scratch Temporary state of the calling thread (created for this som)
+     * @return number of changed neurons
+     */
+    public int updateNeighbourhood(double input[], int winnerNeuron, double eta, Scratch scratch) {
+        NeighbourhoodKernel kernel = getNeighbourhoodKernel();
+        Object[] updateLocks = scratch.updateLocks;
+        int touched = 0;
+
+        // single pass over all neighbours with an influence above the threshold
+        for (int k=0; k<kernel.size; k++) {
+            if (!kernel.isInside(k, neuronGridIndices, winnerNeuron)) {
+                continue;
             }
 
-
-            // update the grid indices
-            int currentDimension = 0;
-            while (true) {
-                if (tmpIterators[currentDimension] == neuronPerDimension - 1 | influenceToSmall) {
-
-                    // ensure to only change the first dimension by to small influence
-                    influenceToSmall = false;
-
-                    // next dimension
-                    tmpIterators[currentDimension] = 0;
-                    currentDimension++;
-
-                    if (currentDimension == dimensions) {
-                        break;
-                    }
-                } else {
-
-                    // increment this one
-                    tmpIterators[currentDimension]++;
-
-                    // done
-                    break;
+            int neuronIndex = winnerNeuron + kernel.indexOffsets[k];
+            touched++;
+            double factor = eta * kernel.influences[k];
+            if (updateLocks != null) {
+                synchronized (updateLocks[(int)((long)neuronIndex * updateLocks.length / numNeurons)]) {
+                    weights.moveTowards(neuronIndex, input, factor);
                 }
             }
-
-            // grid indices counter
-            if (currentDimension == dimensions) {
-                break;
+            else {
+                weights.moveTowards(neuronIndex, input, factor);
             }
         }
+
+        return touched;
     }
 
     /**
-     * Method for calculating the weight updates in a recursive way. Each call gets one dimension deeper.
-     *
-     * In the n-dimensional grid, each winning neuron has 2^n neurons with the same distance and therefore the same phi
-     * influence. This method removes duplicated phi calculation by applying it directly to all the neurons with the
-     * same distance.
+     * Get the neighbourhood kernel for the current phi. It gets rebuilt when phi changed.
      *
-     * @param eta Learning rate
-     * @param phi Neighbourhood factor
-     * @param input Input sample
-     * @param position The neurons position
-     * @param winnerNeuronIndex Index of the neuron, that is the closest to the input sample
-     * @param indexDelta Delta in the indices
-     * @param depth Current n-dimension depth in the recursive method
+     * @return the neighbourhood kernel
      */
-    private void doNeuronUpdateRecursivelyByDelta(double eta, double phi, double[] input, int[] position, int winnerNeuronIndex, int[] indexDelta, int depth) {
-        if (depth == dimensions) {
-
-            // end of position
-            int neuronIndex = getNeuronIndexByGridIndices(position);
-
-            for (int i = 0; i< inputSize; i++) {
-                int weightIndex = neuronIndex * inputSize + i;
-                weights[weightIndex] += eta * phi * (input[i] - weights[weightIndex]);
-            }
-        }
-        else {
-
-            // in between
-            int winnerPos = neuronGridIndices[winnerNeuronIndex * dimensions + depth];
-            int delta = indexDelta[depth];
-            int winnPositive = winnerPos + delta;
-            int winnNegative = winnerPos - delta;
-
-            if (winnPositive < neuronPerDimension) {
-                position[depth] = winnPositive;
-                doNeuronUpdateRecursivelyByDelta(eta, phi, input, position, winnerNeuronIndex, indexDelta, depth + 1);
-            }
-
-            if (delta != 0 && winnNegative >= 0) {
-                position[depth] = winnNegative;
-                doNeuronUpdateRecursivelyByDelta(eta, phi, input, position, winnerNeuronIndex, indexDelta, depth + 1);
-            }
+    public NeighbourhoodKernel getNeighbourhoodKernel() {
+        NeighbourhoodKernel kernel = this.kernel;
+        if (kernel == null || kernel.phi != phi) {
+            kernel = new NeighbourhoodKernel(this, phi);
+            this.kernel = kernel;
         }
+        return kernel;
     }
 
     /**
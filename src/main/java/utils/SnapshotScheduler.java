@@ -0,0 +1,197 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes checkpoints of a training som in the background.
+ *
+ * The training threads call maybeSnapshot() regularly. When a snapshot is due, the calling thread only copies
+ * the weights into one of two reusable buffers, the file is written by a separate I/O thread. If both buffers
+ * are still being written, the snapshot is skipped. Only the newest snapshots are kept on disk.
+ */
+public class SnapshotScheduler {
+    private static final int BUFFERS = 2;
+
+    private final Path directory;                   // Directory of the snapshot files
+    private final String prefix;                    // File name prefix, followed by the iteration
+    private final int keep;                         // Number of snapshots kept on disk
+    public volatile long iterationInterval = 0;     // Iterations between two snapshots (0 to disable)
+    public volatile long timeIntervalMillis = 0;    // Milliseconds between two snapshots (0 to disable)
+
+    private final ArrayBlockingQueue<double[]> freeBuffers = new ArrayBlockingQueue<>(BUFFERS);
+    private final ExecutorService writer;           // The I/O thread
+    private final ReentrantLock copyLock = new ReentrantLock();
+    private volatile long lastIteration = 0;        // Iteration of the last snapshot
+    private volatile long lastTime;                 // Time of the last snapshot (System.nanoTime)
+
+    private volatile long written = 0;              // Number of written snapshots
+    private volatile long skipped = 0;              // Number of snapshots skipped, because both buffers were busy
+    private volatile long lastCopyNanos = 0;        // Time the trainer spent on the last copy
+    private volatile Path lastPath = null;          // File of the last written snapshot
+    private volatile IOException lastError = null;  // Last write error
+
+    /**
+     * Create a snapshot scheduler. No snapshots are taken until an interval is set.
+     *
+     * @param directory Directory of the snapshot files (created if missing)
+     * @param prefix File name prefix
+     * @param keep Number of snapshots kept on disk
+     */
+    public SnapshotScheduler(Path directory, String prefix, int keep) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.keep = Math.max(1, keep);
+        this.lastTime = System.nanoTime();
+        for (int i=0; i<BUFFERS; i++) {
+            freeBuffers.add(new double[0]);
+        }
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Snapshot writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Take a snapshot, if one is due. Only one of multiple concurrent callers copies the weights.
+     *
+     * @param som The som to save
+     * @param iteration Current iteration
+     * @return true, if a snapshot was taken
+     */
+    public boolean maybeSnapshot(SelfOrganizingMap som, long iteration) {
+        if (!isDue(iteration) || !copyLock.tryLock()) {
+            return false;
+        }
+        try {
+            return isDue(iteration) && snapshot(som, iteration);
+        } finally {
+            copyLock.unlock();
+        }
+    }
+
+    private boolean isDue(long iteration) {
+        long iterations = iterationInterval;
+        long millis = timeIntervalMillis;
+        return (iterations > 0 && iteration - lastIteration >= iterations)
+                || (millis > 0 && System.nanoTime() - lastTime >= millis * 1000000L);
+    }
+
+    /**
+     * Take a snapshot now
+     *
+     * @param som The som to save
+     * @param iteration Current iteration
+     * @return true, if the snapshot was taken (false if both buffers are busy)
+     */
+    public boolean snapshot(SelfOrganizingMap som, long iteration) {
+        copyLock.lock();
+        try {
+            lastIteration = iteration;
+            lastTime = System.nanoTime();
+            double[] buffer = freeBuffers.poll();
+            if (buffer == null) {
+                skipped++;
+                return false;
+            }
+
+            long start = System.nanoTime();
+            int size = som.numNeurons * som.inputSize;
+            if (buffer.length != size) {
+                buffer = new double[size];
+            }
+            som.weights.copyTo(buffer);
+            lastCopyNanos = System.nanoTime() - start;
+
+            SomCheckpoint checkpoint = new SomCheckpoint(som, iteration, buffer);
+            double[] writtenBuffer = buffer;
+            writer.execute(() -> {
+                try {
+                    write(checkpoint);
+                } finally {
+                    freeBuffers.add(writtenBuffer);
+                }
+            });
+            return true;
+        } finally {
+            copyLock.unlock();
+        }
+    }
+
+    /**
+     * Write a snapshot and delete the oldest ones (runs on the I/O thread)
+     */
+    private void write(SomCheckpoint checkpoint) {
+        try {
+            Files.createDirectories(directory);
+            Path path = directory.resolve(String.format("%s-%015d.somc", prefix, checkpoint.iteration));
+            checkpoint.save(path);
+            lastPath = path;
+            written++;
+
+            List<Path> snapshots = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*.somc")) {
+                for (Path snapshot : stream) {
+                    snapshots.add(snapshot);
+                }
+            }
+            // oldest first by modification time, the iterations restart after a reset of the som
+            Map<Path, FileTime> times = new HashMap<>();
+            for (Path snapshot : snapshots) {
+                times.put(snapshot, Files.getLastModifiedTime(snapshot));
+            }
+            snapshots.sort(Comparator.comparing((Path snapshot) -> times.get(snapshot)).thenComparing(snapshot -> snapshot));
+            for (int i=0; i<snapshots.size() - keep; i++) {
+                Files.deleteIfExists(snapshots.get(i));
+            }
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    /**
+     * Wait for the pending snapshots and stop the I/O thread
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    public double getLastCopyMillis() {
+        return lastCopyNanos * 1e-6;
+    }
+
+    public Path getLastPath() {
+        return lastPath;
+    }
+
+    public IOException getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,332 @@
+package utils;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * 3d scene of a som, its training data and the coordinate axis.
+ *
+ * Building the scene does not need a canvas, so it can also run off-screen (e.g. in benchmarks).
+ * All elements are stored in reusable primitive arrays (structure of arrays), which only grow when a bigger
+ * scene is built. Rotation and perspective are applied in place, so a frame does not allocate any objects
+ * except for colors which are not in the color cache yet.
+ */
+public class Som3dScene {
+    private static final byte TYPE_NONE = 0;            // Only used as end point of lines
+    private static final byte TYPE_POINT = 1;           // Filled circle (plus connection lines)
+    private static final byte TYPE_LINE = 2;            // Line to the previous element
+    private static final byte TYPE_RECT = 3;            // Filled quad with the previous elements (plus connection lines)
+
+    private static final int AXIS_RED = argb(255, 0, 0, 0.25);
+    private static final int AXIS_GREEN = argb(0, 128, 0, 0.25);
+    private static final int AXIS_BLUE = argb(0, 0, 255, 0.25);
+    private static final int DATA_POINT = argb(200, 200, 200, 0.33);
+    private static final int WHITE = argb(255, 255, 255, 1.0);
+
+    public boolean renderSom = true;        // display the som map
+    public boolean renderDataPoints = true; // display the data points
+    public boolean renderAxis = true;       // display the coordinate system axis.
+    public Projection projection = new Projection(); // projection of the weights and data points into 3d
+
+    // elements of the scene
+    private int count = 0;                  // Number of elements
+    private double[] x = new double[0];     // Screen x after rotation and perspective
+    private double[] y = new double[0];     // Screen y after rotation and perspective
+    private double[] z = new double[0];     // Camera depth (negative values are in front of the camera)
+    private double[] pointWidth = new double[0];
+    private double[] lineWidth = new double[0];
+    private int[] color = new int[0];       // argb fill color
+    private int[] connectionColor = new int[0]; // argb color of the connection lines
+    private byte[] type = new byte[0];
+    private int[] prevX = new int[0];       // Connected elements (-1 for none)
+    private int[] prevY = new int[0];
+    private int[] prevXY = new int[0];
+    private int[] prevZ = new int[0];
+    private final DepthSorter depthSorter = new DepthSorter(); // Keeps the order of the last frame
+    private int[] depthOrder = new int[0];  // Element indices from far to near
+
+    // temp variables
+    private final double[] projected = new double[3];
+    private double[] weights = new double[0];
+    private final double[] xPoints = new double[4];
+    private final double[] yPoints = new double[4];
+    private final ColorCache colors = new ColorCache();
+
+    /**
+     * Build the scene: collect, transform and sort all elements
+     *
+     * @param som The som to visualize
+     * @param trainingData Data points for the data preview (dataPointSize values each)
+     * @param dataPointSize Number of values of each data point
+     * @param rotationY Camera rotation y
+     * @param rotationX Camera rotation x
+     * @param zoomIn Camera zoom in
+     * @param scale Scale from scene units to pixels
+     */
+    public void build(SelfOrganizingMap som, double[] trainingData, int dataPointSize, double rotationY, double rotationX, double zoomIn, double scale) {
+        build(som, null, trainingData, dataPointSize, rotationY, rotationX, zoomIn, scale);
+    }
+
+    /**
+     * Build the scene from a copy of the som weights: collect, transform and sort all elements
+     *
+     * @param som The som to visualize
+     * @param somWeights Copy of all weights of the som (null to read the weights of the som)
+     * @param trainingData Data points for the data preview (dataPointSize values each)
+     * @param dataPointSize Number of values of each data point
+     * @param rotationY Camera rotation y
+     * @param rotationX Camera rotation x
+     * @param zoomIn Camera zoom in
+     * @param scale Scale from scene units to pixels
+     */
+    public void build(SelfOrganizingMap som, double[] somWeights, double[] trainingData, int dataPointSize, double rotationY, double rotationX, double zoomIn, double scale) {
+        int numDataSamples = renderDataPoints && trainingData != null ? trainingData.length / dataPointSize : 0;
+        int numSomSamples = renderSom ? som.numNeurons : 0;
+        int numAxisSamples = renderAxis ? 4 : 0;
+        ensureCapacity(numAxisSamples + numDataSamples + numSomSamples);
+        if (weights.length != som.inputSize) {
+            weights = new double[som.inputSize];
+        }
+        count = 0;
+
+        // coord system
+        if (renderAxis) {
+            int center = add(TYPE_NONE, 0, 0, 0, 0);
+            add(TYPE_LINE, 1, 0, 0, AXIS_RED);
+            add(TYPE_LINE, 0, -1, 0, AXIS_GREEN);
+            add(TYPE_LINE, 0, 0, 1, AXIS_BLUE);
+            for (int i=center + 1; i<count; i++) {
+                prevX[i] = center;
+                connectionColor[i] = color[i];
+                lineWidth[i] = 5.0 / scale;
+            }
+        }
+
+        // training data
+        for (int i=0; i<numDataSamples; i++) {
+            projection.project(trainingData, i * dataPointSize, projected);
+            int index = add(TYPE_POINT, projected[0], -projected[1], projected[2], DATA_POINT);
+            pointWidth[index] = 0.015;
+        }
+
+        // som (the neuron index equals x + y * neuronPerDimension + z * neuronPerDimension^2)
+        if (renderSom) {
+            int npd = som.neuronPerDimension;
+            for (int n=0; n<som.numNeurons; n++) {
+                if (somWeights != null) {
+                    projection.project(somWeights, n * som.inputSize, projected);
+                }
+                else {
+                    som.weights.getNeuron(n, weights);
+                    projection.project(weights, 0, projected);
+                }
+                int r = Math.min(255, Math.max(0, (int) (127.5 * (projected[0] + 1))));
+                int g = Math.min(255, Math.max(0, (int) (127.5 * (projected[1] + 1))));
+                int b = Math.min(255, Math.max(0, (int) (127.5 * (projected[2] + 1))));
+                int gridX = n % npd;
+                int gridY = (n / npd) % npd;
+                int index;
+
+                if (som.dimensions == 1) {
+                    index = add(TYPE_LINE, projected[0], -projected[1], projected[2], argb(r, g, b, 1.0));
+                    prevX[index] = n > 0 ? index - 1 : -1;
+                    connectionColor[index] = color[index];
+                    lineWidth[index] = 3 / scale;
+                }
+                else if (som.dimensions == 2) {
+                    index = add(TYPE_RECT, projected[0], -projected[1], projected[2], argb(r, g, b, 1.0));
+                    prevX[index] = gridX != 0 ? index - 1 : -1;
+                    prevY[index] = gridY != 0 ? index - npd : -1;
+                    prevXY[index] = gridX != 0 && gridY != 0 ? index - 1 - npd : -1;
+                    connectionColor[index] = argb((255 * 3 + r) / 4, (255 * 3 + g) / 4, (b + 255 * 3) / 4, 1.0);
+                    lineWidth[index] = 1 / scale;
+                }
+                else {
+                    index = add(TYPE_POINT, projected[0], -projected[1], projected[2], argb(r, g, b, 1.0));
+                    prevX[index] = gridX != 0 ? index - 1 : -1;
+                    prevY[index] = gridY != 0 ? index - npd : -1;
+                    prevZ[index] = n >= npd * npd ? index - npd * npd : -1;
+                    pointWidth[index] = 0.02;
+                    lineWidth[index] = 1 / scale;
+                }
+            }
+        }
+
+        transform(rotationY, rotationX, zoomIn);
+        depthOrder = depthSorter.sort(z, count);
+    }
+
+    /**
+     * Rotate the camera and apply the perspective to all elements in place
+     *
+     * @param rotationY Camera rotation y
+     * @param rotationX Camera rotation x
+     * @param zoomIn Camera zoom in
+     */
+    private void transform(double rotationY, double rotationX, double zoomIn) {
+        double cosY = Math.cos(rotationY);
+        double sinY = Math.sin(rotationY);
+        double cosX = Math.cos(-rotationX);
+        double sinX = Math.sin(-rotationX);
+        for (int i=0; i<count; i++) {
+            // rotate around the y axis, then around the x axis
+            double x1 = x[i] * cosY + z[i] * sinY;
+            double z1 = -x[i] * sinY + z[i] * cosY;
+            double y2 = y[i] * cosX - z1 * sinX;
+            double z2 = y[i] * sinX + z1 * cosX;
+
+            // camera z
+            double zScale = 3. / (3.0 - z2 - zoomIn);
+            x[i] = x1 * zScale;
+            y[i] = y2 * zScale;
+            z[i] = -3.0 + z2 + zoomIn;
+            lineWidth[i] *= zScale;
+            pointWidth[i] *= zScale;
+        }
+    }
+
+    /**
+     * Draw the scene. The graphics context should be transformed to the scene scale.
+     *
+     * @param gc Graphics context to draw into
+     */
+    public void draw(GraphicsContext gc) {
+        // skip unchanged graphics state
+        Paint stroke = null;
+        Paint fill = null;
+        double currentLineWidth = -1;
+
+        for (int o=0; o<count; o++) {
+            int i = depthOrder[o];
+            if (z[i] >= -0.01) {
+                continue;
+            }
+
+            // connections
+            for (int link=0; link<3; link++) {
+                int prev = link == 0 ? prevX[i] : link == 1 ? prevY[i] : prevZ[i];
+                if (prev < 0) {
+                    continue;
+                }
+                Paint paint = colors.get(connectionColor[i]);
+                if (paint != stroke) {
+                    gc.setStroke(paint);
+                    stroke = paint;
+                }
+                if (lineWidth[i] != currentLineWidth) {
+                    gc.setLineWidth(lineWidth[i]);
+                    currentLineWidth = lineWidth[i];
+                }
+                gc.strokeLine(x[prev], y[prev], x[i], y[i]);
+            }
+
+            if (type[i] == TYPE_POINT) {
+                Paint paint = colors.get(color[i]);
+                if (paint != fill) {
+                    gc.setFill(paint);
+                    fill = paint;
+                }
+                gc.fillOval(x[i] - pointWidth[i] * 0.5, y[i] - pointWidth[i] * 0.5, pointWidth[i], pointWidth[i]);
+            }
+            else if (type[i] == TYPE_RECT && prevX[i] >= 0 && prevY[i] >= 0 && prevXY[i] >= 0) {
+                Paint paint = colors.get((color[i] & 0x00ffffff) | (alphaByte(0.75) << 24));
+                if (paint != fill) {
+                    gc.setFill(paint);
+                    fill = paint;
+                }
+                xPoints[0] = x[i];
+                xPoints[1] = x[prevX[i]];
+                xPoints[2] = x[prevXY[i]];
+                xPoints[3] = x[prevY[i]];
+                yPoints[0] = y[i];
+                yPoints[1] = y[prevX[i]];
+                yPoints[2] = y[prevXY[i]];
+                yPoints[3] = y[prevY[i]];
+                gc.fillPolygon(xPoints, yPoints, 4);
+            }
+        }
+    }
+
+    /**
+     * Get the number of elements of the last built scene
+     *
+     * @return number of elements
+     */
+    public int getElementCount() {
+        return count;
+    }
+
+    /**
+     * Add an element without connections
+     *
+     * @return index of the element
+     */
+    private int add(byte elementType, double elementX, double elementY, double elementZ, int elementColor) {
+        int index = count++;
+        type[index] = elementType;
+        x[index] = elementX;
+        y[index] = elementY;
+        z[index] = elementZ;
+        color[index] = elementColor;
+        connectionColor[index] = WHITE;
+        pointWidth[index] = 0.015;
+        lineWidth[index] = 0;
+        prevX[index] = -1;
+        prevY[index] = -1;
+        prevXY[index] = -1;
+        prevZ[index] = -1;
+        return index;
+    }
+
+    /**
+     * Grow the element arrays, if they are too small
+     *
+     * @param capacity Wanted number of elements
+     */
+    private void ensureCapacity(int capacity) {
+        if (x.length >= capacity) {
+            return;
+        }
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        pointWidth = new double[capacity];
+        lineWidth = new double[capacity];
+        color = new int[capacity];
+        connectionColor = new int[capacity];
+        type = new byte[capacity];
+        prevX = new int[capacity];
+        prevY = new int[capacity];
+        prevXY = new int[capacity];
+        prevZ = new int[capacity];
+    }
+
+    private static int alphaByte(double opacity) {
+        return (int) Math.round(opacity * 255);
+    }
+
+    private static int argb(int r, int g, int b, double opacity) {
+        return (alphaByte(opacity) << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Direct mapped cache of colors by their argb value, so unchanged colors are not allocated again every frame
+     */
+    private static class ColorCache {
+        private static final int SIZE = 1 << 14;
+        private final int[] keys = new int[SIZE];
+        private final Color[] colors = new Color[SIZE];
+
+        Color get(int argb) {
+            int slot = (argb * 0x9E3779B1) >>> (32 - 14);
+            Color color = colors[slot];
+            if (color == null || keys[slot] != argb) {
+                color = Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+                colors[slot] = color;
+                keys[slot] = argb;
+            }
+            return color;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * Saved state of a som, which can be written to and read from a binary file.
+ *
+ * File format (little endian):
+ *
+ *   int    magic               0x534F4D43 ("SOMC")
+ *   int    version             1
+ *   int    dimensions
+ *   int    neuronPerDimension
+ *   int    inputSize
+ *   int    weight store type   ordinal of WeightStore.Type
+ *   double phi
+ *   long   iteration
+ *   int    numNeurons          for validation
+ *   int    reserved            0
+ *   double weights             numNeurons * inputSize values
+ *
+ * Files are written to a temporary file first and then moved, so an existing checkpoint is never left half written.
+ */
+public class SomCheckpoint {
+    public static final int MAGIC = 0x534F4D43;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 48;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int CHUNK_VALUES = 1 << 17;    // Weights per write or read call
+    private static final int SEGMENT_VALUES = 1 << 27;  // Weights per mapped segment (1 GiB)
+
+    public final SelfOrganizingMap som;     // The som
+    public final long iteration;            // Number of trained iterations
+    public final double phi;                // Neighbourhood function variable at the time of the checkpoint
+    private final double[] weights;         // Copy of the weights (null to save the current weights of the som)
+
+    public SomCheckpoint(SelfOrganizingMap som, long iteration) {
+        this(som, iteration, null);
+    }
+
+    /**
+     * Create a checkpoint of copied weights, so it can be saved while the som continues training
+     *
+     * @param som The som
+     * @param iteration Number of trained iterations
+     * @param weights Copy of the weights of the som (see WeightStore.copyTo)
+     */
+    public SomCheckpoint(SelfOrganizingMap som, long iteration, double[] weights) {
+        this.som = som;
+        this.iteration = iteration;
+        this.phi = som.phi;
+        this.weights = weights;
+    }
+
+    /**
+     * Write the checkpoint into a file
+     *
+     * @param path Path of the file
+     * @throws IOException if the file can not be written
+     */
+    public void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(som.dimensions);
+            header.putInt(som.neuronPerDimension);
+            header.putInt(som.inputSize);
+            header.putInt(som.weights.getType().ordinal());
+            header.putDouble(phi);
+            header.putLong(iteration);
+            header.putInt(som.numNeurons);
+            header.putInt(0);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_VALUES * 8).order(BYTE_ORDER);
+            int size = som.numNeurons * som.inputSize;
+            for (int offset=0; offset<size; offset+=CHUNK_VALUES) {
+                int count = Math.min(CHUNK_VALUES, size - offset);
+                chunk.clear();
+                DoubleBuffer values = chunk.asDoubleBuffer();
+                values.limit(count);
+                if (weights != null) {
+                    values.put(weights, offset, count);
+                }
+                else {
+                    som.weights.copyTo(offset, values);
+                }
+                chunk.limit(count * 8);
+                writeFully(channel, chunk);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a checkpoint by mapping the file into memory
+     *
+     * @param path Path of the file
+     * @return the checkpoint with a new som
+     * @throws IOException if the file can not be read or is no valid checkpoint
+     */
+    public static SomCheckpoint load(Path path) throws IOException {
+        return load(path, true);
+    }
+
+    /**
+     * Read a checkpoint
+     *
+     * @param path Path of the file
+     * @param mapped Map the file into memory instead of reading it in chunks (faster for big maps)
+     * @return the checkpoint with a new som
+     * @throws IOException if the file can not be read or is no valid checkpoint
+     */
+    public static SomCheckpoint load(Path path, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + ": not a som checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported checkpoint version " + version);
+            }
+            int dimensions = header.getInt();
+            int neuronPerDimension = header.getInt();
+            int inputSize = header.getInt();
+            int storeType = header.getInt();
+            double phi = header.getDouble();
+            long iteration = header.getLong();
+            int numNeurons = header.getInt();
+            if (storeType < 0 || storeType >= WeightStore.Type.values().length) {
+                throw new IOException(path + ": unknown weight store type " + storeType);
+            }
+            if (dimensions < 1 || dimensions > 3 || neuronPerDimension < 1 || inputSize < 1) {
+                throw new IOException(path + ": invalid som shape (dimensions " + dimensions
+                        + ", neurons per dimension " + neuronPerDimension + ", input size " + inputSize + ")");
+            }
+            // stops above the int range, so it does not overflow for any header
+            long gridNeurons = 1;
+            for (int d=0; d<dimensions && gridNeurons <= Integer.MAX_VALUE; d++) {
+                gridNeurons *= neuronPerDimension;
+            }
+            if (gridNeurons > Integer.MAX_VALUE || gridNeurons != numNeurons) {
+                throw new IOException(path + ": neuron count does not match the grid size");
+            }
+            long size = (long) numNeurons * inputSize;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + ": too many weights (" + size + ")");
+            }
+            if (channel.size() < HEADER_BYTES + size * 8) {
+                throw new IOException(path + ": checkpoint is truncated");
+            }
+
+            SelfOrganizingMap som = new SelfOrganizingMap(inputSize, dimensions, neuronPerDimension,
+                    WeightStore.Type.values()[storeType], (SplittableRandom) null);
+            som.phi = phi;
+
+            if (mapped) {
+                for (long offset=0; offset<size; offset+=SEGMENT_VALUES) {
+                    long count = Math.min(SEGMENT_VALUES, size - offset);
+                    DoubleBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + offset * 8, count * 8)
+                            .order(BYTE_ORDER).asDoubleBuffer();
+                    som.weights.copyFrom((int) offset, values);
+                }
+            }
+            else {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_VALUES * 8).order(BYTE_ORDER);
+                for (long offset=0; offset<size; offset+=CHUNK_VALUES) {
+                    int count = (int) Math.min(CHUNK_VALUES, size - offset);
+                    chunk.clear();
+                    chunk.limit(count * 8);
+                    readFully(channel, chunk, HEADER_BYTES + offset * 8);
+                    chunk.flip();
+                    som.weights.copyFrom((int) offset, chunk.asDoubleBuffer());
+                }
+            }
+            som.getBmuSearch().weightsChanged();
+            return new SomCheckpoint(som, iteration);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
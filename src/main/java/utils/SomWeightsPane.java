@@ -2,17 +2,22 @@ package utils;
 
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
-import javafx.scene.paint.Color;
 
 /**
  * Visualize the weights of the som in a canvas
  */
 public class SomWeightsPane extends AnimatedCanvasPane {
     private volatile SelfOrganizingMap som;
+    private Projection projection = new Projection();
     private final int CANVAS_HEIGHT_1D = 20;
     private final int CANVAS_SIZE_2D = 150;
     private final int CANVAS_SIZE_3D = 44;
+    private final Renderer renderer = new Renderer();
+    private WeightSnapshots weightSnapshots = null; // Copies of the trained weights (null to read the som directly)
+
+    private WeightSnapshots.Snapshot snapshot = null; // Snapshot of the current frame (null to read the som)
 
     public SomWeightsPane(SelfOrganizingMap som, double width, double height) {
         super(width, height);
@@ -21,8 +26,22 @@ public class SomWeightsPane extends AnimatedCanvasPane {
     }
 
     @Override
-    public void updateView() {
+    protected void collectDependencies() {
         updateCanvasSize();
+        SelfOrganizingMap som = this.som;
+        snapshot = weightSnapshots != null ? weightSnapshots.latest(som) : null;
+
+        // without a snapshot the live weights may change at any time
+        if (snapshot == null) {
+            invalidate();
+        }
+        depends(som);
+        depends(snapshot != null ? snapshot.getSequence() : -1);
+        depends(projection.getVersion());
+    }
+
+    @Override
+    public void updateView() {
         fillCanvas();
     }
 
@@ -50,35 +69,179 @@ public class SomWeightsPane extends AnimatedCanvasPane {
         updateCanvasSize();
     }
 
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Set the projection of the weights into rgb colors
+     *
+     * @param projection Projection into 3 dimensions
+     */
+    public void setProjection(Projection projection) {
+        this.projection = projection;
+    }
+
+    public WeightSnapshots getWeightSnapshots() {
+        return weightSnapshots;
+    }
+
+    /**
+     * Draw copies of the weights instead of the live weights of the som
+     *
+     * @param weightSnapshots Snapshots published by the training (null to read the som directly)
+     */
+    public void setWeightSnapshots(WeightSnapshots weightSnapshots) {
+        this.weightSnapshots = weightSnapshots;
+    }
+
     public void fillCanvas() {
         Canvas canvas = this.getCanvas();
         final GraphicsContext gc = canvas.getGraphicsContext2D();
-        final PixelWriter pw = gc.getPixelWriter();
-
+        SelfOrganizingMap som = this.som;
         int width = (int)canvas.getWidth();
         int height = (int)canvas.getHeight();
-        double[] input = new double[som.dimensions];
-        double[] output = new double[3];
-        for(int y=0; y<height; y++){
-            for (int x=0; x<width; x++){
-                if (input.length != 3) {
-                    input[0] = (double) x / width;
+
+        WeightSnapshots.Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.getSom() != som) {
+            snapshot = null;
+        }
+
+        renderer.fill(som, snapshot != null ? snapshot.getWeights() : null, projection, gc.getPixelWriter(), width, height);
+    }
+
+    /**
+     * Draws the weights of a som as colors into a reusable argb buffer and writes it with a single setPixels call.
+     * It does not need a canvas, so it can also run off-screen.
+     *
+     * The neuron of each pixel only changes with the som and the image size, so it is looked up once.
+     * Every frame the color of each visible neuron is computed once and copied into its pixels.
+     */
+    public static class Renderer {
+        private SelfOrganizingMap som;          // som of the current lookup
+        private int width = -1;                 // image width of the current lookup
+        private int height = -1;                // image height of the current lookup
+        private int[] pixels = new int[0];      // argb pixels, row by row
+        private int[] pixelNeurons = new int[0]; // neuron index of each pixel
+        private int[] visibleNeurons = new int[0]; // neurons which appear in at least one pixel
+        private int[] neuronColors = new int[0]; // argb color of each neuron in the current frame
+        private double[] weights = new double[0];
+        private final double[] projected = new double[3];
+
+        /**
+         * Draw the weights of a som
+         *
+         * @param som The som to visualize
+         * @param projection Projection of the weights into rgb
+         * @param pw Pixel writer to draw into
+         * @param width Width in pixels
+         * @param height Height in pixels
+         */
+        public void fill(SelfOrganizingMap som, Projection projection, PixelWriter pw, int width, int height) {
+            fill(som, null, projection, pw, width, height);
+        }
+
+        /**
+         * Draw a copy of the weights of a som
+         *
+         * @param som The som to visualize
+         * @param somWeights Copy of all weights of the som (null to read the weights of the som)
+         * @param projection Projection of the weights into rgb
+         * @param pw Pixel writer to draw into
+         * @param width Width in pixels
+         * @param height Height in pixels
+         */
+        public void fill(SelfOrganizingMap som, double[] somWeights, Projection projection, PixelWriter pw, int width, int height) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            if (som != this.som || width != this.width || height != this.height) {
+                buildLookup(som, width, height);
+            }
+
+            // one color per neuron
+            if (weights.length != som.inputSize) {
+                weights = new double[som.inputSize];
+            }
+            for (int neuronIndex : visibleNeurons) {
+                if (somWeights != null) {
+                    projection.project(somWeights, neuronIndex * som.inputSize, projected);
                 }
                 else {
-                    input[0] = (double)((x * som.neuronPerDimension) % width) / width;
-                    input[2] = (double)((x * som.neuronPerDimension) / width) / som.neuronPerDimension;
+                    som.weights.getNeuron(neuronIndex, weights);
+                    projection.project(weights, 0, projected);
+                }
+                neuronColors[neuronIndex] = 0xff000000
+                        | (toColorByte(projected[0]) << 16)
+                        | (toColorByte(projected[1]) << 8)
+                        | toColorByte(projected[2]);
+            }
+
+            for (int i=0; i<pixels.length; i++) {
+                pixels[i] = neuronColors[pixelNeurons[i]];
+            }
+            pw.setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        }
+
+        /**
+         * Find the neuron of each pixel
+         *
+         * @param som The som to visualize
+         * @param width Width in pixels
+         * @param height Height in pixels
+         */
+        private void buildLookup(SelfOrganizingMap som, int width, int height) {
+            this.som = som;
+            this.width = width;
+            this.height = height;
+            pixels = new int[width * height];
+            pixelNeurons = new int[width * height];
+            neuronColors = new int[som.numNeurons];
+
+            // 3d soms show their layers side by side
+            double[] gridPosition = new double[som.dimensions];
+            boolean[] visible = new boolean[som.numNeurons];
+            int visibleCount = 0;
+            for (int y=0; y<height; y++) {
+                for (int x=0; x<width; x++) {
+                    if (gridPosition.length != 3) {
+                        gridPosition[0] = (double) x / width;
+                    }
+                    else {
+                        gridPosition[0] = (double)((x * som.neuronPerDimension) % width) / width;
+                        gridPosition[2] = (double)((x * som.neuronPerDimension) / width) / som.neuronPerDimension;
+                    }
+                    if (gridPosition.length > 1) {
+                        gridPosition[1] = (double) y / height;
+                    }
+
+                    int neuronIndex = som.getNeuronIndexByGridPosition(gridPosition);
+                    pixelNeurons[y * width + x] = neuronIndex;
+                    if (!visible[neuronIndex]) {
+                        visible[neuronIndex] = true;
+                        visibleCount++;
+                    }
                 }
-                if (input.length > 1) {
-                    input[1] = (double) y / height;
+            }
+
+            visibleNeurons = new int[visibleCount];
+            int next = 0;
+            for (int n=0; n<som.numNeurons; n++) {
+                if (visible[n]) {
+                    visibleNeurons[next++] = n;
                 }
-                som.getNeuronWeightsFromGridPosition(input, output);
-                Color color = new Color(
-                        Math.max(Math.min(output[0] * 0.5 + 0.5, 1.0), 0.0),
-                        Math.max(Math.min(output[1] * 0.5 + 0.5, 1.0), 0.0),
-                        Math.max(Math.min(output[2] * 0.5 + 0.5, 1.0), 0.0), 1.0);
-                pw.setColor(x, y, color);
             }
         }
+
+        /**
+         * Convert a projected value in the range [-1.0 ; 1.0] into a color channel
+         *
+         * @param value Projected value
+         * @return color channel in the range [0 ; 255]
+         */
+        private static int toColorByte(double value) {
+            return (int) Math.round(Math.max(Math.min(value * 0.5 + 0.5, 1.0), 0.0) * 255);
+        }
     }
 
 }
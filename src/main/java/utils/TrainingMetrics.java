@@ -0,0 +1,334 @@
+package utils;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry for the throughput and step latencies of the training.
+ *
+ * The trainers count all iterations, but only time every n-th step of each thread, split into sample generation,
+ * best matching unit search and neighbourhood update. The latencies go into histograms with power of two buckets,
+ * which cover the last 10 to 20 seconds. The metrics can be registered as MBean to read them with JMX.
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+
+    /**
+     * Timed phases of a training step
+     */
+    public enum Phase {
+        SAMPLE("sample"),
+        BMU_SEARCH("bmu"),
+        UPDATE("update");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private static final int BUCKETS = 64;                  // Bucket b counts latencies in [2^(b-1) ; 2^b) nanoseconds
+    private static final int PHASES = Phase.values().length;
+    private static final long WINDOW_NANOS = 10000000000L;  // Lifetime of a histogram window
+    private static final long RATE_NANOS = 1000000000L;     // Minimum time for a new iterations/second value
+
+    public volatile int timingInterval = 64;                // Time every n-th step of each thread (0 disables the timing)
+
+    private final LongAdder iterations = new LongAdder();
+    private volatile Window current = new Window();         // Window the latencies are recorded into
+    private volatile Window previous = new Window();        // Last full window
+    private final AtomicLong nextRotation = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+    private ObjectName objectName = null;                   // Name of the registered MBean
+
+    // iterations per second
+    private long rateTime = System.nanoTime();
+    private long rateIterations = 0;
+    private double iterationsPerSecond = 0;
+
+    /**
+     * Recorded values of one time window
+     */
+    private static class Window {
+        final AtomicLongArray counts = new AtomicLongArray(PHASES * BUCKETS);
+        final AtomicLongArray sums = new AtomicLongArray(PHASES);
+        final AtomicLong touchedSum = new AtomicLong();
+        final AtomicLong touchedCount = new AtomicLong();
+    }
+
+    /**
+     * Check if a step of a thread should be timed
+     *
+     * @param step Step counter of the calling thread
+     * @return true, if the step should be timed
+     */
+    public boolean isTimed(long step) {
+        int interval = timingInterval;
+        return interval > 0 && step % interval == 0;
+    }
+
+    /**
+     * Add the latency of a timed phase
+     *
+     * @param phase The phase
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        nanos = Math.max(0, nanos);
+        Window window = current;
+        window.counts.incrementAndGet(phase.ordinal() * BUCKETS + getBucket(nanos));
+        window.sums.addAndGet(phase.ordinal(), nanos);
+    }
+
+    /**
+     * Add the number of neurons changed by a timed update
+     *
+     * @param count Number of neurons
+     */
+    public void recordNeuronsTouched(int count) {
+        Window window = current;
+        window.touchedSum.addAndGet(count);
+        window.touchedCount.incrementAndGet();
+    }
+
+    /**
+     * Count trained iterations. The histogram windows are rotated here as well.
+     *
+     * @param count Number of iterations
+     */
+    public void addIterations(long count) {
+        iterations.add(count);
+
+        long now = System.nanoTime();
+        long rotation = nextRotation.get();
+        if (now - rotation >= 0 && nextRotation.compareAndSet(rotation, now + WINDOW_NANOS)) {
+            previous = current;
+            current = new Window();
+        }
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    /**
+     * Get the training speed of the last second (or more, if it is read less often)
+     *
+     * @return iterations per second
+     */
+    @Override
+    public synchronized double getIterationsPerSecond() {
+        long now = System.nanoTime();
+        if (now - rateTime >= RATE_NANOS) {
+            long iterations = getIterations();
+            iterationsPerSecond = (iterations - rateIterations) * 1e9 / (now - rateTime);
+            rateTime = now;
+            rateIterations = iterations;
+        }
+        return iterationsPerSecond;
+    }
+
+    /**
+     * Get the mean latency of a phase in the recent windows
+     *
+     * @param phase The phase
+     * @return mean duration in nanoseconds (0.0 if nothing was recorded)
+     */
+    public double getMeanLatency(Phase phase) {
+        Window current = this.current;
+        Window previous = this.previous;
+        long count = 0;
+        for (int b=0; b<BUCKETS; b++) {
+            count += current.counts.get(phase.ordinal() * BUCKETS + b) + previous.counts.get(phase.ordinal() * BUCKETS + b);
+        }
+        long sum = current.sums.get(phase.ordinal()) + previous.sums.get(phase.ordinal());
+        return count == 0 ? 0.0 : (double)sum / count;
+    }
+
+    /**
+     * Get a percentile of the latency of a phase in the recent windows.
+     * It is interpolated inside the power of two bucket, so it is an estimate.
+     *
+     * @param phase The phase
+     * @param percentile Percentile in the range [0.0 ; 1.0]
+     * @return duration in nanoseconds (0.0 if nothing was recorded)
+     */
+    public double getLatencyPercentile(Phase phase, double percentile) {
+        Window current = this.current;
+        Window previous = this.previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int b=0; b<BUCKETS; b++) {
+            counts[b] = current.counts.get(phase.ordinal() * BUCKETS + b) + previous.counts.get(phase.ordinal() * BUCKETS + b);
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+
+        double rank = percentile * total;
+        long seen = 0;
+        for (int b=0; b<BUCKETS; b++) {
+            if (counts[b] > 0 && seen + counts[b] >= rank) {
+                double low = b == 0 ? 0 : Math.pow(2, b - 1);
+                double high = Math.pow(2, b);
+                return low + (high - low) * Math.max(0, rank - seen) / counts[b];
+            }
+            seen += counts[b];
+        }
+        return Math.pow(2, BUCKETS - 1);
+    }
+
+    /**
+     * Get the mean number of neurons changed by one update in the recent windows.
+     * It depends on phi and the influence threshold of the som.
+     *
+     * @return mean number of neurons (0.0 if nothing was recorded)
+     */
+    @Override
+    public double getMeanNeuronsTouched() {
+        Window current = this.current;
+        Window previous = this.previous;
+        long count = current.touchedCount.get() + previous.touchedCount.get();
+        long sum = current.touchedSum.get() + previous.touchedSum.get();
+        return count == 0 ? 0.0 : (double)sum / count;
+    }
+
+    /**
+     * Clear the latencies and neuron counts (the iterations keep counting)
+     */
+    @Override
+    public void reset() {
+        previous = new Window();
+        current = new Window();
+    }
+
+    /**
+     * Get a short description of the current values (e.g. for an overlay)
+     *
+     * @return one line per value
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("it/s: %.0f", getIterationsPerSecond()));
+        for (Phase phase : Phase.values()) {
+            summary.append(String.format("%n%s: mean %.2fus  p50 %.2fus  p99 %.2fus", phase,
+                    getMeanLatency(phase) * 1e-3,
+                    getLatencyPercentile(phase, 0.5) * 1e-3,
+                    getLatencyPercentile(phase, 0.99) * 1e-3));
+        }
+        summary.append(String.format("%nneurons per update: %.1f", getMeanNeuronsTouched()));
+        return summary.toString();
+    }
+
+    /**
+     * Register these metrics at the platform MBean server
+     *
+     * @param name Name property of the MBean (e.g. the application name)
+     * @throws JMException if the registration fails
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("som:type=TrainingMetrics,name=" + ObjectName.quote(name));
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // replace metrics of an earlier run in the same JVM
+            server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+        this.objectName = objectName;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server, if they are registered
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    /**
+     * Get the histogram bucket of a duration
+     *
+     * @param nanos Duration in nanoseconds (not negative)
+     * @return bucket index
+     */
+    private static int getBucket(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    @Override
+    public double getSampleMeanNanos() {
+        return getMeanLatency(Phase.SAMPLE);
+    }
+
+    @Override
+    public double getSampleP50Nanos() {
+        return getLatencyPercentile(Phase.SAMPLE, 0.5);
+    }
+
+    @Override
+    public double getSampleP99Nanos() {
+        return getLatencyPercentile(Phase.SAMPLE, 0.99);
+    }
+
+    @Override
+    public double getBmuSearchMeanNanos() {
+        return getMeanLatency(Phase.BMU_SEARCH);
+    }
+
+    @Override
+    public double getBmuSearchP50Nanos() {
+        return getLatencyPercentile(Phase.BMU_SEARCH, 0.5);
+    }
+
+    @Override
+    public double getBmuSearchP99Nanos() {
+        return getLatencyPercentile(Phase.BMU_SEARCH, 0.99);
+    }
+
+    @Override
+    public double getUpdateMeanNanos() {
+        return getMeanLatency(Phase.UPDATE);
+    }
+
+    @Override
+    public double getUpdateP50Nanos() {
+        return getLatencyPercentile(Phase.UPDATE, 0.5);
+    }
+
+    @Override
+    public double getUpdateP99Nanos() {
+        return getLatencyPercentile(Phase.UPDATE, 0.99);
+    }
+
+    @Override
+    public int getTimingInterval() {
+        return timingInterval;
+    }
+
+    @Override
+    public void setTimingInterval(int interval) {
+        timingInterval = interval;
+    }
+}
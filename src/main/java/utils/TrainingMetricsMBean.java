@@ -0,0 +1,38 @@
+package utils;
+
+/**
+ * JMX view of the training metrics (see TrainingMetrics).
+ * All latencies are in nanoseconds per training step.
+ */
+public interface TrainingMetricsMBean {
+
+    long getIterations();
+
+    double getIterationsPerSecond();
+
+    double getSampleMeanNanos();
+
+    double getSampleP50Nanos();
+
+    double getSampleP99Nanos();
+
+    double getBmuSearchMeanNanos();
+
+    double getBmuSearchP50Nanos();
+
+    double getBmuSearchP99Nanos();
+
+    double getUpdateMeanNanos();
+
+    double getUpdateP50Nanos();
+
+    double getUpdateP99Nanos();
+
+    double getMeanNeuronsTouched();
+
+    int getTimingInterval();
+
+    void setTimingInterval(int interval);
+
+    void reset();
+}
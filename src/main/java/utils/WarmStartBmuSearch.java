@@ -0,0 +1,199 @@
+package utils;
+
+/**
+ * Best matching unit search which walks through the neuron grid.
+ *
+ * Once a som has organized itself, neighbouring neurons have similar weights. This search starts
+ * from the previous winner and moves to the closest direct neighbour in the n-dimensional grid until
+ * no neighbour is closer (hill climbing), so most searches only compute a few distances.
+ * The walk can get stuck in a local minimum: if it ends much farther away than the recent winners, it is
+ * repeated from the best point of a coarse grid, and a full scan is done every fullScanInterval searches.
+ * The training errors are measured on these full scans.
+ */
+public class WarmStartBmuSearch extends BmuSearch {
+    public int coarseGridPoints = 8;            // Coarse grid points per dimension for the fallback start (0 disables it)
+    public double coarseFallbackFactor = 4;     // Walks ending farther than this times the mean squared winner distance try the coarse grid
+
+    private final int[] dimensionStrides;       // Index delta to the next neuron in each dimension
+    private int fullScanInterval = 100;         // Number of searches after which a full scan is done (0 disables it)
+    private int lastWinner = -1;                // Cached winner of the previous search
+    private int searchesSinceFullScan = 0;
+    private double meanDistanceSq = 0;          // Moving average of the squared winner distances (0 if unknown)
+    private double walkDistanceSq;              // Squared distance of the last walk result
+
+    public WarmStartBmuSearch(SelfOrganizingMap som) {
+        super(som);
+
+        dimensionStrides = new int[som.dimensions];
+        int product = 1;
+        for (int d=0; d<som.dimensions; d++) {
+            dimensionStrides[d] = product;
+            product *= som.neuronPerDimension;
+        }
+        errorInterval = fullScanInterval;
+    }
+
+    public int getFullScanInterval() {
+        return fullScanInterval;
+    }
+
+    /**
+     * Set the interval of the full scans. The training errors are measured on the full scans, so
+     * the error interval is set as well.
+     *
+     * @param fullScanInterval Number of searches after which a full scan is done (0 disables it)
+     */
+    public void setFullScanInterval(int fullScanInterval) {
+        this.fullScanInterval = fullScanInterval;
+        this.errorInterval = fullScanInterval;
+    }
+
+    @Override
+    protected int search(double[] input) {
+        if (lastWinner < 0 || (fullScanInterval > 0 && ++searchesSinceFullScan >= fullScanInterval)) {
+            searchesSinceFullScan = 0;
+            lastWinner = som.getClosestNeuronIndexExact(input);
+            addDistance(som.getDistanceSq(input, lastWinner));
+            return lastWinner;
+        }
+
+        // the cached winner is only a good start if it is about as close as the recent winners
+        double maxDistanceSq = coarseFallbackFactor * meanDistanceSq;
+        int start = lastWinner;
+        if (som.getDistanceSq(input, start) > maxDistanceSq) {
+            int coarseStart = getCoarseGridGuess(input, som.getDistanceSq(input, start));
+            if (coarseStart >= 0) {
+                start = coarseStart;
+            }
+        }
+        int current = walk(input, start);
+        double currentDistanceSq = walkDistanceSq;
+
+        // probably stuck in a local minimum: try again from the coarse grid
+        if (start == lastWinner && currentDistanceSq > maxDistanceSq) {
+            int coarseStart = getCoarseGridGuess(input, currentDistanceSq);
+            if (coarseStart >= 0) {
+                int coarseWinner = walk(input, coarseStart);
+                if (walkDistanceSq < currentDistanceSq) {
+                    current = coarseWinner;
+                    currentDistanceSq = walkDistanceSq;
+                }
+            }
+        }
+
+        addDistance(currentDistanceSq);
+        lastWinner = current;
+        return current;
+    }
+
+    /**
+     * Walk to the closest neighbour until reaching a local minimum
+     *
+     * @param input Input sample
+     * @param start Neuron to start from
+     * @return index of the local minimum (its squared distance is stored in walkDistanceSq)
+     */
+    private int walk(double[] input, int start) {
+        int current = start;
+        double currentDistanceSq = som.getDistanceSq(input, current);
+        int dimensions = som.dimensions;
+        int[] gridIndices = som.neuronGridIndices;
+        int maxGridIndex = som.neuronPerDimension - 1;
+        while (true) {
+            int next = current;
+            for (int d=0; d<dimensions; d++) {
+                int gridIndex = gridIndices[current * dimensions + d];
+
+                if (gridIndex > 0) {
+                    int neighbour = current - dimensionStrides[d];
+                    double distance = som.getDistanceSq(input, neighbour, currentDistanceSq);
+                    if (distance < currentDistanceSq) {
+                        currentDistanceSq = distance;
+                        next = neighbour;
+                    }
+                }
+
+                if (gridIndex < maxGridIndex) {
+                    int neighbour = current + dimensionStrides[d];
+                    double distance = som.getDistanceSq(input, neighbour, currentDistanceSq);
+                    if (distance < currentDistanceSq) {
+                        currentDistanceSq = distance;
+                        next = neighbour;
+                    }
+                }
+            }
+
+            if (next == current) {
+                break;
+            }
+            current = next;
+        }
+
+        walkDistanceSq = currentDistanceSq;
+        return current;
+    }
+
+    private void addDistance(double distanceSq) {
+        if (meanDistanceSq == 0) {
+            meanDistanceSq = distanceSq;
+        }
+        else {
+            meanDistanceSq += 0.01 * (distanceSq - meanDistanceSq);
+        }
+    }
+
+    @Override
+    protected int searchTwo(double[] input, int[] secondIndex) {
+        searchesSinceFullScan = 0;
+        lastWinner = som.weights.getClosestNeuronIndices(input, secondIndex);
+        addDistance(som.getDistanceSq(input, lastWinner));
+        return lastWinner;
+    }
+
+    @Override
+    public void weightsChanged() {
+        // distances of the old weights do not tell whether a walk got stuck
+        meanDistanceSq = 0;
+    }
+
+    /**
+     * Search the closest neuron in a coarse sub grid of the som
+     *
+     * @param input Input sample
+     * @param maxDistanceSq Only neurons closer than this are accepted
+     * @return index of the closest coarse grid neuron or -1 if none is closer than maxDistanceSq
+     */
+    private int getCoarseGridGuess(double[] input, double maxDistanceSq) {
+        int neuronPerDimension = som.neuronPerDimension;
+        if (coarseGridPoints <= 0 || coarseGridPoints >= neuronPerDimension) {
+            return -1;
+        }
+
+        // count through the coarse grid like through a number with coarseGridPoints digits
+        int dimensions = som.dimensions;
+        int numPoints = 1;
+        for (int d=0; d<dimensions; d++) {
+            numPoints *= coarseGridPoints;
+        }
+
+        int bestIndex = -1;
+        double bestDistanceSq = maxDistanceSq;
+        for (int p=0; p<numPoints; p++) {
+            int index = 0;
+            int digits = p;
+            for (int d=0; d<dimensions; d++) {
+                int gridIndex = ((2 * (digits % coarseGridPoints) + 1) * neuronPerDimension) / (2 * coarseGridPoints);
+                index += gridIndex * dimensionStrides[d];
+                digits /= coarseGridPoints;
+            }
+
+            double distance = som.getDistanceSq(input, index, bestDistanceSq);
+            if (distance < bestDistanceSq) {
+                bestDistanceSq = distance;
+                bestIndex = index;
+            }
+        }
+
+        return bestIndex;
+    }
+}
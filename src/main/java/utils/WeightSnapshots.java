@@ -0,0 +1,138 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copies of the som weights for the visualizers, so they never read the weights the trainers are writing.
+ *
+ * The trainers call maybePublish() regularly, which copies the weights at a bounded rate into a triple buffer:
+ * the trainer writes into its back buffer and swaps it with the middle one, the renderers swap the middle buffer
+ * with their front buffer when it holds a newer sequence number. Neither side waits for the other.
+ * All readers have to run on the same thread (the FX application thread), since they share the front buffer.
+ */
+public class WeightSnapshots {
+
+    /**
+     * Weights of a som at one point of the training
+     */
+    public static class Snapshot {
+        private SelfOrganizingMap som = null;   // Som the weights were copied from
+        private double[] weights = new double[0]; // All weights (inputSize values per neuron)
+        private long sequence = 0;              // Number of the snapshot (0 for none)
+
+        public SelfOrganizingMap getSom() {
+            return som;
+        }
+
+        public double[] getWeights() {
+            return weights;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    public volatile long intervalNanos = 16000000L; // Minimum time between two snapshots (about 60 per second)
+
+    private final AtomicReference<Snapshot> middle = new AtomicReference<>(new Snapshot()); // Latest published snapshot
+    private Snapshot back = new Snapshot();         // Written by the publishing trainer (guarded by the lock)
+    private Snapshot front = new Snapshot();        // Read by the renderers
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private long sequence = 0;                      // Sequence of the last snapshot (guarded by the lock)
+    private volatile long lastTime = System.nanoTime() - Long.MAX_VALUE / 2; // Time of the last snapshot (System.nanoTime)
+
+    private volatile long published = 0;            // Number of published snapshots
+    private volatile long lastCopyNanos = 0;        // Time the trainer spent on the last copy
+
+    /**
+     * Publish a snapshot, if the last one is old enough. Only one of multiple concurrent callers copies the weights.
+     *
+     * @param som The som to copy
+     * @return true, if a snapshot was published
+     */
+    public boolean maybePublish(SelfOrganizingMap som) {
+        if (!isDue() || !publishLock.tryLock()) {
+            return false;
+        }
+        try {
+            if (!isDue()) {
+                return false;
+            }
+            copy(som);
+            return true;
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    private boolean isDue() {
+        return System.nanoTime() - lastTime >= intervalNanos;
+    }
+
+    /**
+     * Publish a snapshot now (e.g. after the som was replaced or the training stopped)
+     *
+     * @param som The som to copy
+     */
+    public void publish(SelfOrganizingMap som) {
+        publishLock.lock();
+        try {
+            copy(som);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the weights into the back buffer and swap it with the middle one (the lock must be held)
+     */
+    private void copy(SelfOrganizingMap som) {
+        long start = System.nanoTime();
+        Snapshot snapshot = back;
+        int size = som.numNeurons * som.inputSize;
+        if (snapshot.weights.length != size) {
+            snapshot.weights = new double[size];
+        }
+        som.weights.copyTo(snapshot.weights);
+        snapshot.som = som;
+        snapshot.sequence = ++sequence;
+        back = middle.getAndSet(snapshot);
+
+        lastTime = System.nanoTime();
+        lastCopyNanos = lastTime - start;
+        published++;
+    }
+
+    /**
+     * Get the latest published snapshot. It stays valid until the next call on the reader thread.
+     *
+     * @return the snapshot (null if nothing was published yet)
+     */
+    public Snapshot latest() {
+        if (middle.get().sequence > front.sequence) {
+            front = middle.getAndSet(front);
+        }
+        return front.sequence > 0 ? front : null;
+    }
+
+    /**
+     * Get the latest published snapshot of a som
+     *
+     * @param som The som
+     * @return the snapshot (null if there is none of this som yet)
+     */
+    public Snapshot latest(SelfOrganizingMap som) {
+        Snapshot snapshot = latest();
+        return snapshot != null && snapshot.som == som ? snapshot : null;
+    }
+
+    public long getPublishedCount() {
+        return published;
+    }
+
+    public double getLastCopyMillis() {
+        return lastCopyNanos * 1e-6;
+    }
+}
@@ -0,0 +1,238 @@
+package utils;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Storage for the weights of all neurons of a som.
+ *
+ * The weights of neuron n are stored at the indices [n * inputSize ; (n + 1) * inputSize).
+ * The distance and update methods are implemented by each backend, so the hot loops do not go
+ * through a method call per value.
+ */
+public abstract class WeightStore {
+
+    /**
+     * Available storage backends
+     */
+    public enum Type {
+        HEAP_DOUBLE("Heap double"),
+        HEAP_FLOAT("Heap float"),
+        OFF_HEAP_DOUBLE("Off-heap double");
+
+        private final String displayName;
+
+        Type(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * Create a new store of this type. All weights are 0.
+         *
+         * @param numNeurons Number of neurons
+         * @param inputSize Number of weights per neuron
+         * @return New weight store
+         */
+        public WeightStore create(int numNeurons, int inputSize) {
+            switch (this) {
+                case HEAP_FLOAT:
+                    return new FloatArrayWeightStore(numNeurons, inputSize);
+                case OFF_HEAP_DOUBLE:
+                    return new OffHeapWeightStore(numNeurons, inputSize);
+                default:
+                    return new DoubleArrayWeightStore(numNeurons, inputSize);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    // Blocked distance kernels, which compare several neurons at once (disable with -Dsom.blockedKernels=false)
+    protected static final boolean BLOCKED_KERNELS = !"false".equals(System.getProperty("som.blockedKernels"));
+    protected static final int BLOCKED_MIN_INPUT_SIZE = 16;    // Smallest input size using the blocked kernels
+    protected static final int BLOCK_CHUNK = 16;                // Components between the early exit checks
+
+    public final int numNeurons;                // Number of neurons
+    public final int inputSize;                 // Number of weights per neuron
+    public final int size;                      // Total number of weights
+
+    /**
+     * Create a store
+     *
+     * @param numNeurons Number of neurons
+     * @param inputSize Number of weights per neuron
+     * @throws IllegalArgumentException if a size is negative or the weights do not fit into int indices
+     */
+    public WeightStore(int numNeurons, int inputSize) {
+        if (numNeurons < 0 || inputSize < 0 || (long) numNeurons * inputSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported weight store size: " + numNeurons + " neurons with "
+                    + inputSize + " weights each (at most " + Integer.MAX_VALUE + " weights)");
+        }
+        this.numNeurons = numNeurons;
+        this.inputSize = inputSize;
+        this.size = numNeurons * inputSize;
+    }
+
+    /**
+     * Get the type of this store
+     *
+     * @return type of the backend
+     */
+    public abstract Type getType();
+
+    /**
+     * Get a single weight
+     *
+     * @param index Index of the weight (neuron * inputSize + component)
+     * @return the weight
+     */
+    public abstract double get(int index);
+
+    /**
+     * Set a single weight
+     *
+     * @param index Index of the weight (neuron * inputSize + component)
+     * @param value New weight
+     */
+    public abstract void set(int index, double value);
+
+    /**
+     * Get the squared euclidean distance between an input sample and a neuron.
+     * The calculation stops early as soon as the distance exceeds maxDistanceSq.
+     *
+     * @param neuronIndex Index of the neuron
+     * @param input An input sample
+     * @param maxDistanceSq Distance from which on the exact value is not needed
+     * @return squared distance (or a value bigger than maxDistanceSq)
+     */
+    public abstract double distanceSq(int neuronIndex, double[] input, double maxDistanceSq);
+
+    /**
+     * Get the index of the closest neuron to the input sample by scanning all neurons
+     *
+     * @param input An input sample (length should be bigger or equal to inputSize)
+     * @return single index of the closest neuron
+     */
+    public int getClosestNeuronIndex(double[] input) {
+        double shortestDistance = Double.MAX_VALUE;
+        int winnerIndex = 0;
+        for (int n=0; n<numNeurons; n++) {
+            double distance = distanceSq(n, input, shortestDistance);
+            if (distance < shortestDistance) {
+                winnerIndex = n;
+                shortestDistance = distance;
+            }
+        }
+
+        return winnerIndex;
+    }
+
+    /**
+     * Get the indices of the two neurons closest to the input sample
+     *
+     * @param input An input sample
+     * @param secondIndex Output for the index of the second closest neuron (-1 if there is only one neuron)
+     * @return index of the closest neuron
+     */
+    public int getClosestNeuronIndices(double[] input, int[] secondIndex) {
+        double shortestDistance = Double.MAX_VALUE;
+        double secondDistance = Double.MAX_VALUE;
+        int winnerIndex = -1;
+        int secondWinnerIndex = -1;
+        for (int n=0; n<numNeurons; n++) {
+            double distance = distanceSq(n, input, secondDistance);
+            if (distance < shortestDistance) {
+                secondWinnerIndex = winnerIndex;
+                secondDistance = shortestDistance;
+                winnerIndex = n;
+                shortestDistance = distance;
+            }
+            else if (distance < secondDistance) {
+                secondWinnerIndex = n;
+                secondDistance = distance;
+            }
+        }
+
+        secondIndex[0] = secondWinnerIndex;
+        return Math.max(0, winnerIndex);
+    }
+
+    /**
+     * Move the weights of one neuron towards the input sample
+     *
+     * @param neuronIndex Index of the neuron
+     * @param input Input sample
+     * @param factor Fraction of the way to move
+     */
+    public abstract void moveTowards(int neuronIndex, double[] input, double factor);
+
+    /**
+     * Get the number of bytes used for the weights
+     *
+     * @return memory usage in bytes
+     */
+    public abstract long getMemoryBytes();
+
+    /**
+     * Copy the weights of one neuron into an array
+     *
+     * @param neuronIndex Index of the neuron
+     * @param outNeuronWeights Output array (length should be at least inputSize)
+     */
+    public void getNeuron(int neuronIndex, double[] outNeuronWeights) {
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            outNeuronWeights[i] = get(offset + i);
+        }
+    }
+
+    /**
+     * Set the weights of one neuron
+     *
+     * @param neuronIndex Index of the neuron
+     * @param neuronWeights New weights (length should be at least inputSize)
+     */
+    public void setNeuron(int neuronIndex, double[] neuronWeights) {
+        int offset = neuronIndex * inputSize;
+        for (int i=0; i<inputSize; i++) {
+            set(offset + i, neuronWeights[i]);
+        }
+    }
+
+    /**
+     * Copy all weights into an array
+     *
+     * @param out Output array (length should be at least size)
+     */
+    public void copyTo(double[] out) {
+        for (int i=0; i<size; i++) {
+            out[i] = get(i);
+        }
+    }
+
+    /**
+     * Copy consecutive weights into a buffer, until the buffer is full
+     *
+     * @param offset Index of the first weight
+     * @param target Output buffer, its position is moved to its limit
+     */
+    public void copyTo(int offset, DoubleBuffer target) {
+        while (target.hasRemaining()) {
+            target.put(get(offset++));
+        }
+    }
+
+    /**
+     * Set consecutive weights from a buffer
+     *
+     * @param offset Index of the first weight to set
+     * @param source New weights (all remaining values), its position is moved to its limit
+     */
+    public void copyFrom(int offset, DoubleBuffer source) {
+        while (source.hasRemaining()) {
+            set(offset++, source.get());
+        }
+    }
+}